@@ -7,7 +7,7 @@ import java.lang.annotation.Target;
 import java.util.concurrent.TimeUnit;
 
 /**
- * An annotation for marking an async method of a Guice-provided object as timed.
+ * An annotation for marking an async method of a Guice- or Spring-provided object as timed.
  * <p/>
  * Given a method like this:
  * <pre><code>
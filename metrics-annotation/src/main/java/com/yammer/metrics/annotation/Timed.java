@@ -48,4 +48,9 @@ public @interface Timed {
      * The time unit of the timer's duration.
      */
     TimeUnit durationUnit() default TimeUnit.MILLISECONDS;
+
+    /**
+     * Time one in every {@code sampleRate} calls, chosen at random. Every call is still counted.
+     */
+    int sampleRate() default 1;
 }
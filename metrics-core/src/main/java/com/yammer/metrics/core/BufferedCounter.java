@@ -0,0 +1,156 @@
+package com.yammer.metrics.core;
+
+import java.lang.ref.WeakReference;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link Counter} which accumulates updates into a plain, thread-confined {@code long} and only
+ * publishes them once every {@code flushThreshold} updates, or on the first update after the
+ * counter has been read. Use it for counters which are updated so often that even a
+ * {@link LongAdder} cell update shows up in profiles.
+ * <p/>
+ * Each call to {@link #count()} asks every thread to publish its pending updates on its next
+ * update. So the value includes every update made by threads which have flushed or terminated,
+ * and every update a live thread made before the previous read, if it has updated since then:
+ * with a reporter reading the counter every period, a busy thread's updates are at most two
+ * periods stale. A thread which stops updating keeps at most {@code flushThreshold - 1} updates
+ * unpublished until it updates again, calls {@link #flush()} or terminates, so call
+ * {@link #flush()} at the end of a batch to publish the calling thread's pending updates
+ * immediately.
+ */
+public class BufferedCounter extends Counter {
+    /**
+     * The number of updates a thread buffers before publishing them, by default.
+     */
+    public static final int DEFAULT_FLUSH_THRESHOLD = 1024;
+
+    private static class Cell {
+        private final WeakReference<Thread> owner;
+        // only ever written by the owning thread, so a lazySet is enough to publish it
+        private final AtomicLong published = new AtomicLong();
+        private long total;
+        private int pendingUpdates;
+        // the counter's flush requests which this cell has seen
+        private int seenRequests;
+
+        private Cell(Thread owner) {
+            this.owner = new WeakReference<Thread>(owner);
+        }
+
+        private void add(long n, int flushThreshold, int flushRequests) {
+            total += n;
+            if (++pendingUpdates >= flushThreshold || flushRequests != seenRequests) {
+                seenRequests = flushRequests;
+                flush();
+            }
+        }
+
+        private void flush() {
+            pendingUpdates = 0;
+            published.lazySet(total);
+        }
+
+        private boolean isOwnerTerminated() {
+            final Thread thread = owner.get();
+            return thread == null || !thread.isAlive();
+        }
+    }
+
+    private final int flushThreshold;
+    private final Queue<Cell> cells = new ConcurrentLinkedQueue<Cell>();
+    private final LongAdder retired = new LongAdder();
+    // incremented by each read; a thread which sees a new value publishes its pending updates
+    private final AtomicInteger flushRequests = new AtomicInteger();
+    private final ThreadLocal<Cell> localCell = new ThreadLocal<Cell>() {
+        @Override
+        protected Cell initialValue() {
+            final Cell cell = new Cell(Thread.currentThread());
+            cells.add(cell);
+            isActive = true;
+            return cell;
+        }
+    };
+    private volatile boolean isActive;
+
+    /**
+     * Creates a new {@link BufferedCounter}.
+     *
+     * @param flushThreshold the number of updates each thread buffers before publishing them
+     */
+    BufferedCounter(int flushThreshold) {
+        if (flushThreshold < 1) {
+            throw new IllegalArgumentException("flushThreshold must be positive");
+        }
+        this.flushThreshold = flushThreshold;
+    }
+
+    /**
+     * Returns the number of updates each thread buffers before publishing them.
+     *
+     * @return the flush threshold
+     */
+    public int flushThreshold() {
+        return flushThreshold;
+    }
+
+    @Override
+    public void inc(long n) {
+        touch();
+        localCell.get().add(n, flushThreshold, flushRequests.get());
+    }
+
+    @Override
+    public void dec(long n) {
+        touch();
+        localCell.get().add(0 - n, flushThreshold, flushRequests.get());
+    }
+
+    /**
+     * Publishes the calling thread's pending updates.
+     */
+    public void flush() {
+        localCell.get().flush();
+    }
+
+    /**
+     * Returns the counter's current value, which excludes at most {@code flushThreshold - 1}
+     * unpublished updates per live thread, and asks each live thread to publish its pending
+     * updates on its next update.
+     *
+     * @return the counter's current value
+     */
+    @Override
+    public long count() {
+        flushRequests.incrementAndGet();
+        long count = 0;
+        for (Cell cell : cells) {
+            if (cell.isOwnerTerminated()) {
+                // a terminated thread's final writes are visible once isAlive() returns false, so
+                // its unpublished updates can be folded in as well
+                if (cells.remove(cell)) {
+                    retired.add(cell.total);
+                }
+            } else {
+                count += cell.published.get();
+            }
+        }
+        return retired.sum() + count;
+    }
+
+    @Override
+    public boolean isActive() {
+        return isActive;
+    }
+
+    /**
+     * Resets the counter to 0. Updates which have not been published yet are not discarded.
+     */
+    @Override
+    public void clear() {
+        retired.add(0 - count());
+    }
+}
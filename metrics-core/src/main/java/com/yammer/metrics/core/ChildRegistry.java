@@ -0,0 +1,60 @@
+package com.yammer.metrics.core;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A registry whose metrics are reported with its parent's, and whose names are scoped and
+ * tagged so that they don't collide with the parent's or its siblings'.
+ *
+ * @see MetricsRegistry#newChild(String, Map)
+ */
+class ChildRegistry extends MetricsRegistry {
+    private final MetricsRegistry parent;
+    private final String scope;
+    private final Map<String, String> tags;
+
+    ChildRegistry(MetricsRegistry parent, Clock clock, MetricsScheduler scheduler, String scope, Map<String, String> tags) {
+        super(clock, scheduler);
+        this.parent = parent;
+        this.scope = scope;
+        this.tags = new HashMap<String, String>(tags);
+    }
+
+    @Override
+    MetricsRegistry parent() {
+        return parent;
+    }
+
+    @Override
+    protected MetricName createName(Class<?> klass, String name, String scope) {
+        final MetricName named = parent.createName(klass, name, scoped(scope));
+        if (tags.isEmpty()) {
+            return named;
+        }
+        final Map<String, String> merged = new HashMap<String, String>(named.getTags());
+        merged.putAll(tags);
+        return new MetricName(named.getGroup(), named.getType(), named.getName(), named.getScope(), merged);
+    }
+
+    private String scoped(String metricScope) {
+        if (scope == null) {
+            return metricScope;
+        }
+        if (metricScope == null) {
+            return scope;
+        }
+        return scope + '.' + metricScope;
+    }
+
+    /**
+     * Detaches this registry from its parent, then stops its metrics. The thread pools are the
+     * parent's, so they keep running.
+     */
+    @Override
+    public void shutdown() {
+        if (parent.detach(this)) {
+            release();
+        }
+    }
+}
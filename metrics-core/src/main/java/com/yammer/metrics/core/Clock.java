@@ -2,6 +2,8 @@ package com.yammer.metrics.core;
 
 import java.lang.management.ManagementFactory;
 import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * An abstraction for how time passes. It is passed to {@link Timer} to track timing.
@@ -37,6 +39,20 @@ public abstract class Clock {
     }
 
 
+    /**
+     * A shared {@link CoarseClock} with a resolution of 10 milliseconds, for callers which only
+     * need coarse timestamps. Its background thread is started on first use.
+     *
+     * @return the shared {@link CoarseClock} instance
+     */
+    public static Clock coarseClock() {
+        return CoarseClockHolder.INSTANCE;
+    }
+
+    private static class CoarseClockHolder {
+        private static final CoarseClock INSTANCE = new CoarseClock(10, TimeUnit.MILLISECONDS);
+    }
+
     /**
      * A clock implementation which returns the current time in epoch nanoseconds.
      */
@@ -58,4 +74,78 @@ public abstract class Clock {
             return THREAD_MX_BEAN.getCurrentThreadCpuTime();
         }
     }
+
+    /**
+     * A clock implementation which reads an underlying clock from a background thread at a fixed
+     * resolution and returns the last reading. Reading it is a volatile load instead of a call to
+     * {@link System#nanoTime()}, which suits callers that read the clock on every update but only
+     * need coarse timestamps, like sample rotation and decay weights. Readings lag the underlying
+     * clock by at most one resolution period.
+     */
+    public static class CoarseClock extends Clock implements Stoppable {
+        private final Clock underlying;
+        private final long resolutionNS;
+        private final Thread updater;
+        private volatile long tick;
+        private volatile long time;
+        private volatile boolean stopped;
+
+        /**
+         * Creates a new {@link CoarseClock} on top of a {@link UserTimeClock}.
+         *
+         * @param resolution the interval at which the clock is updated
+         * @param unit       the unit of {@code resolution}
+         */
+        public CoarseClock(long resolution, TimeUnit unit) {
+            this(new UserTimeClock(), resolution, unit);
+        }
+
+        /**
+         * Creates a new {@link CoarseClock}.
+         *
+         * @param underlying the clock to read
+         * @param resolution the interval at which the clock is updated
+         * @param unit       the unit of {@code resolution}
+         */
+        public CoarseClock(Clock underlying, long resolution, TimeUnit unit) {
+            this.underlying = underlying;
+            this.resolutionNS = unit.toNanos(resolution);
+            update();
+            this.updater = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (!stopped) {
+                        LockSupport.parkNanos(resolutionNS);
+                        update();
+                    }
+                }
+            }, "metrics-coarse-clock");
+            updater.setDaemon(true);
+            updater.start();
+        }
+
+        private void update() {
+            tick = underlying.tick();
+            time = underlying.time();
+        }
+
+        @Override
+        public long tick() {
+            return tick;
+        }
+
+        @Override
+        public long time() {
+            return time;
+        }
+
+        /**
+         * Stops the background thread. The clock keeps returning its last reading.
+         */
+        @Override
+        public void stop() {
+            stopped = true;
+            LockSupport.unpark(updater);
+        }
+    }
 }
@@ -8,6 +8,7 @@ import java.util.concurrent.atomic.LongAdder;
 public class Counter implements Metric {
     private final LongAdder count;
     private boolean isActive;
+    private volatile boolean touched;
 
     Counter() {
         this.count = new LongAdder();
@@ -27,7 +28,8 @@ public class Counter implements Metric {
      * @param n the amount by which the counter will be increased
      */
     public void inc(long n) {
-        isActive = true;
+        markActive();
+        touch();
         count.add(n);
     }
 
@@ -44,7 +46,8 @@ public class Counter implements Metric {
      * @param n the amount by which the counter will be increased
      */
     public void dec(long n) {
-        isActive = true;
+        markActive();
+        touch();
         count.add(0 - n);
     }
 
@@ -71,6 +74,33 @@ public class Counter implements Metric {
         count.reset();
     }
 
+    /**
+     * Returns whether the counter has been updated since the last call, and resets that flag.
+     *
+     * @return whether the counter has been updated since the last call
+     */
+    boolean untouch() {
+        if (touched) {
+            touched = false;
+            return true;
+        }
+        return false;
+    }
+
+    void touch() {
+        // only store once per sweep, so that hot metrics don't keep dirtying a shared cache line
+        if (!touched) {
+            touched = true;
+        }
+    }
+
+    private void markActive() {
+        // only store once, so that hot counters don't keep dirtying a shared cache line
+        if (!isActive) {
+            isActive = true;
+        }
+    }
+
     @Override
     public <T> void processWith(MetricProcessor<T> processor, MetricName name, T context) throws Exception {
         processor.processCounter(name, this, context);
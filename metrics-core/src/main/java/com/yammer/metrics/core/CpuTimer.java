@@ -0,0 +1,172 @@
+package com.yammer.metrics.core;
+
+import com.yammer.metrics.core.Histogram.SampleType;
+import com.yammer.metrics.stats.Snapshot;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link Timer} which records the CPU time of the timing thread alongside the wall-clock
+ * duration of each timed section, so that CPU-bound sections can be told apart from ones which
+ * spend their time waiting.
+ * <p/>
+ * Reading a thread's CPU time is considerably more expensive than reading {@link System#nanoTime()},
+ * so the timer can be told to record CPU time for only one in every {@code N} sections, chosen at
+ * random. Wall-clock durations and rates are always recorded for every section.
+ * <p/>
+ * CPU time is recorded by {@link #time()}, {@link #timeConfined()} and
+ * {@link #time(java.util.concurrent.Callable)}. The primitive {@link #start()}/{@link #stop(long)}
+ * API only carries the wall-clock start time, so sections timed with it record wall-clock time
+ * only.
+ * <p/>
+ * A thread's CPU clock only measures that thread, so a section's CPU time is only recorded when
+ * its {@link TimerContext} is stopped by the thread which started it. A context handed to another
+ * thread and stopped there records its wall-clock duration but no CPU time, rather than the
+ * difference between two unrelated threads' clocks.
+ */
+public class CpuTimer extends Timer {
+    private final Clock cpuClock;
+    private final int cpuSampleRate;
+    private final Histogram cpuHistogram = new Histogram(SampleType.BIASED);
+    private final LongAdder sampledWallTime = new LongAdder();
+    private final CpuTime cpuTime = new CpuTime();
+    private final DoubleGauge cpuUtilisation = new DoubleGauge() {
+        @Override
+        public double doubleValue() {
+            final long wallTime = sampledWallTime.sum();
+            if (wallTime == 0) {
+                return Double.NaN;
+            }
+            return cpuHistogram.sum() / wallTime;
+        }
+    };
+
+    /**
+     * Creates a new {@link CpuTimer}.
+     *
+     * @param tickThread    background thread for updating the rates
+     * @param durationUnit  the scale unit for this timer's duration metrics
+     * @param rateUnit      the scale unit for this timer's rate metrics
+     * @param clock         the clock used to calculate wall-clock duration
+     * @param cpuClock      the clock used to calculate CPU time
+     * @param cpuSampleRate record CPU time for one in every {@code cpuSampleRate} sections
+     */
+    CpuTimer(ScheduledExecutorService tickThread,
+             TimeUnit durationUnit,
+             TimeUnit rateUnit,
+             Clock clock,
+             Clock cpuClock,
+             int cpuSampleRate) {
+        super(tickThread, durationUnit, rateUnit, clock);
+        if (cpuSampleRate < 1) {
+            throw new IllegalArgumentException("cpuSampleRate must be at least 1");
+        }
+        this.cpuClock = cpuClock;
+        this.cpuSampleRate = cpuSampleRate;
+    }
+
+    /**
+     * Returns the statistics of the recorded CPU times, in the timer's duration unit.
+     *
+     * @return the CPU time statistics
+     */
+    public CpuTime cpuTime() {
+        return cpuTime;
+    }
+
+    /**
+     * Returns a gauge of the ratio of CPU time to wall-clock time over the sections whose CPU time
+     * was recorded. A ratio close to {@code 1.0} means the timed sections are CPU-bound; a ratio
+     * close to {@code 0.0} means they're mostly waiting.
+     *
+     * @return the CPU utilisation gauge
+     */
+    public DoubleGauge cpuUtilisation() {
+        return cpuUtilisation;
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        cpuHistogram.clear();
+        sampledWallTime.reset();
+    }
+
+    @Override
+    long startCpu() {
+        if (cpuSampleRate == 1 || ThreadLocalRandom.current().nextInt(cpuSampleRate) == 0) {
+            return cpuClock.tick();
+        }
+        return -1;
+    }
+
+    @Override
+    void update(long duration, long cpuStartTime) {
+        super.update(duration, cpuStartTime);
+        if (cpuStartTime >= 0 && duration >= 0) {
+            final long cpu = cpuClock.tick() - cpuStartTime;
+            if (cpu >= 0) {
+                cpuHistogram.update(cpu);
+                sampledWallTime.add(duration);
+            }
+        }
+    }
+
+    private double convertFromNS(double ns) {
+        return ns / TimeUnit.NANOSECONDS.convert(1, durationUnit());
+    }
+
+    /**
+     * The statistics of a {@link CpuTimer}'s recorded CPU times, in the timer's duration unit.
+     */
+    public class CpuTime implements Sampling, Summarizable {
+        private CpuTime() { /* only created by CpuTimer */ }
+
+        /**
+         * Returns the number of recorded CPU times.
+         *
+         * @return the number of recorded CPU times
+         */
+        public long count() {
+            return cpuHistogram.count();
+        }
+
+        @Override
+        public double max() {
+            return convertFromNS(cpuHistogram.max());
+        }
+
+        @Override
+        public double min() {
+            return convertFromNS(cpuHistogram.min());
+        }
+
+        @Override
+        public double mean() {
+            return convertFromNS(cpuHistogram.mean());
+        }
+
+        @Override
+        public double stdDev() {
+            return convertFromNS(cpuHistogram.stdDev());
+        }
+
+        @Override
+        public double sum() {
+            return convertFromNS(cpuHistogram.sum());
+        }
+
+        @Override
+        public Snapshot getSnapshot() {
+            final double[] values = cpuHistogram.getSnapshot().getValues();
+            final double[] converted = new double[values.length];
+            for (int i = 0; i < values.length; i++) {
+                converted[i] = convertFromNS(values[i]);
+            }
+            return new Snapshot(converted);
+        }
+    }
+}
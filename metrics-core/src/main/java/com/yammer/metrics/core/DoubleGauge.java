@@ -0,0 +1,26 @@
+package com.yammer.metrics.core;
+
+/**
+ * A {@link Gauge} whose value is a {@code double}. Reporters read it through
+ * {@link #doubleValue()} and
+ * {@link MetricProcessor#processDoubleGauge(MetricName, DoubleGauge, Object)}, so reporting it
+ * doesn't box the value.
+ */
+public abstract class DoubleGauge extends Gauge<Double> {
+    /**
+     * Returns the metric's current value.
+     *
+     * @return the metric's current value
+     */
+    public abstract double doubleValue();
+
+    @Override
+    public final Double value() {
+        return doubleValue();
+    }
+
+    @Override
+    public <U> void processWith(MetricProcessor<U> processor, MetricName name, U context) throws Exception {
+        processor.processDoubleGauge(name, this, context);
+    }
+}
@@ -0,0 +1,246 @@
+package com.yammer.metrics.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Polls a registry's polling gauges. Gauges with the same poll interval form a group, which is
+ * read by a single scheduled task, so the number of tasks depends on the number of distinct
+ * intervals rather than on the number of gauges. A group can be split across several threads.
+ * Once a group's last gauge is stopped, its task is cancelled.
+ * <p/>
+ * The poller records its own metrics: the drift of each group's poll from its schedule, the
+ * duration of each group's poll and the number of gauges which threw when read.
+ */
+class GaugePoller {
+    private final ScheduledExecutorService pollThread;
+    private final ExecutorService workers;
+    private final Clock clock;
+    private final Timer drift;
+    private final Timer duration;
+    private final Counter failures;
+    private final ConcurrentMap<Long, Group> groups = new ConcurrentHashMap<Long, Group>();
+    private volatile int parallelism;
+
+    /**
+     * Creates a new {@link GaugePoller}.
+     *
+     * @param pollThread  the thread which runs each group's poll
+     * @param workers     the threads which help poll large groups
+     * @param parallelism the number of threads which poll each group
+     * @param clock       the clock used to measure drift and duration
+     * @param drift       the timer which records how late each group's poll starts
+     * @param duration    the timer which records how long each group's poll takes
+     * @param failures    the counter of gauges which threw when read
+     */
+    GaugePoller(ScheduledExecutorService pollThread,
+                ExecutorService workers,
+                int parallelism,
+                Clock clock,
+                Timer drift,
+                Timer duration,
+                Counter failures) {
+        this.pollThread = pollThread;
+        this.workers = workers;
+        this.clock = clock;
+        this.drift = drift;
+        this.duration = duration;
+        this.failures = failures;
+        setParallelism(parallelism);
+    }
+
+    /**
+     * Sets the number of threads which poll each group, including the group's own. If the helper
+     * pool is a {@link ThreadPoolExecutor} with too few threads for the new parallelism, it's
+     * grown to fit; other pools are assumed to run every task they're given.
+     *
+     * @param parallelism the number of threads which poll each group
+     */
+    void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+        if (workers instanceof ThreadPoolExecutor) {
+            final ThreadPoolExecutor pool = (ThreadPoolExecutor) workers;
+            synchronized (this) {
+                if (pool.getCorePoolSize() < parallelism - 1) {
+                    pool.setCorePoolSize(parallelism - 1);
+                }
+            }
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Starts polling the given gauge into the given histogram.
+     *
+     * @param gauge            the gauge to poll
+     * @param histogram        the histogram which records the gauge's values
+     * @param pollInterval     how frequently to poll the gauge
+     * @param pollIntervalUnit the time unit of the poll interval
+     * @param <T>              the type of the gauge's value
+     * @return a handle which stops polling the gauge
+     */
+    <T extends Number> Stoppable poll(Gauge<T> gauge, Histogram histogram, long pollInterval, TimeUnit pollIntervalUnit) {
+        final long interval = pollIntervalUnit.toNanos(pollInterval);
+        while (true) {
+            Group group = groups.get(interval);
+            if (group == null) {
+                final Group created = new Group(interval);
+                group = groups.putIfAbsent(interval, created);
+                if (group == null) {
+                    group = created;
+                    group.start();
+                }
+            }
+            final PollingGauge<T> polling = new PollingGauge<T>(gauge, histogram, group);
+            if (group.add(polling)) {
+                return polling;
+            }
+            // the group emptied and was cancelled meanwhile, so try again with a new one
+        }
+    }
+
+    /**
+     * Returns {@code true} if the poller's thread has been shut down, after which it polls
+     * nothing.
+     *
+     * @return whether the poller's thread has been shut down
+     */
+    boolean isShutdown() {
+        return pollThread.isShutdown();
+    }
+
+    /**
+     * Stops polling every group.
+     */
+    void stop() {
+        for (Group group : groups.values()) {
+            group.stop();
+        }
+    }
+
+    /**
+     * The polling gauges which share a poll interval.
+     */
+    class Group implements Runnable {
+        private final long interval;
+        private final Set<PollingGauge<?>> gauges = ConcurrentHashMap.newKeySet();
+        private long scheduled;
+        private volatile ScheduledFuture<?> future;
+        // set once the group has emptied, after which it takes no more gauges
+        private boolean retired;
+
+        private Group(long interval) {
+            this.interval = interval;
+        }
+
+        private void start() {
+            this.scheduled = clock.tick() + interval;
+            this.future = pollThread.scheduleAtFixedRate(this, interval, interval, TimeUnit.NANOSECONDS);
+        }
+
+        private void stop() {
+            final ScheduledFuture<?> current = future;
+            if (current != null) {
+                current.cancel(false);
+            }
+        }
+
+        synchronized boolean add(PollingGauge<?> gauge) {
+            if (retired) {
+                return false;
+            }
+            gauges.add(gauge);
+            return true;
+        }
+
+        synchronized void remove(PollingGauge<?> gauge) {
+            if (gauges.remove(gauge) && gauges.isEmpty()) {
+                retired = true;
+                groups.remove(interval, this);
+                stop();
+            }
+        }
+
+        @Override
+        public void run() {
+            final long start = clock.tick();
+            drift.update(Math.max(0, start - scheduled), TimeUnit.NANOSECONDS);
+            scheduled += interval;
+            if (scheduled < start - interval) {
+                // we've fallen more than a whole interval behind, so skip the polls we missed
+                scheduled = start;
+            }
+
+            final List<PollingGauge<?>> snapshot = new ArrayList<PollingGauge<?>>(gauges);
+            final int threads = Math.min(parallelism, snapshot.size());
+            if (threads <= 1) {
+                pollAll(snapshot, 0, snapshot.size());
+            } else {
+                pollInParallel(snapshot, threads);
+            }
+            duration.update(clock.tick() - start, TimeUnit.NANOSECONDS);
+        }
+
+        private void pollInParallel(final List<PollingGauge<?>> snapshot, int threads) {
+            // the gauges are split into more chunks than threads, and every thread, including
+            // this one, claims chunks until none are left; this thread never waits for a helper
+            // which hasn't started, so a busy or single-threaded pool can't deadlock it
+            final int chunkSize = Math.max(1, snapshot.size() / (threads * 4));
+            final int chunks = (snapshot.size() + chunkSize - 1) / chunkSize;
+            final AtomicInteger nextChunk = new AtomicInteger();
+            final AtomicInteger unfinished = new AtomicInteger(chunks);
+            final Object done = new Object();
+            final Runnable helper = new Runnable() {
+                @Override
+                public void run() {
+                    int chunk;
+                    while ((chunk = nextChunk.getAndIncrement()) < chunks) {
+                        final int from = chunk * chunkSize;
+                        try {
+                            pollAll(snapshot, from, Math.min(snapshot.size(), from + chunkSize));
+                        } finally {
+                            if (unfinished.decrementAndGet() == 0) {
+                                synchronized (done) {
+                                    done.notifyAll();
+                                }
+                            }
+                        }
+                    }
+                }
+            };
+            for (int i = 1; i < threads; i++) {
+                try {
+                    workers.execute(helper);
+                } catch (RejectedExecutionException e) {
+                    break;
+                }
+            }
+            helper.run();
+            synchronized (done) {
+                while (unfinished.get() > 0) {
+                    try {
+                        done.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+
+        private void pollAll(List<PollingGauge<?>> snapshot, int from, int to) {
+            for (int i = from; i < to; i++) {
+                try {
+                    snapshot.get(i).poll();
+                } catch (Throwable e) {
+                    failures.inc();
+                }
+            }
+        }
+    }
+}
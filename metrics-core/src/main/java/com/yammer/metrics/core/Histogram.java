@@ -38,12 +38,13 @@ public class Histogram implements Metric, Sampling, Summarizable {
 
         /**
          * Uses an array of {@link UniformSample} that get cleared periodically so that data can't
-         * hang around for more than a few minutes.
+         * hang around for more than a few minutes. Rotation only needs coarse timestamps, so it
+         * reads {@link Clock#coarseClock()}.
          */
         BIASED {
             @Override
             public Sample newSample() {
-                return new UniformTimeWindowedSample(DEFAULT_SAMPLE_SIZE, DEFAULT_SAMPLE_COUNT);
+                return new UniformTimeWindowedSample(DEFAULT_SAMPLE_SIZE, DEFAULT_SAMPLE_COUNT, Clock.coarseClock());
             }
         };
 
@@ -59,6 +60,7 @@ public class Histogram implements Metric, Sampling, Summarizable {
     private final AtomicReference<double[]> variance =
             new AtomicReference<double[]>(new double[]{-1, 0}); // M, S
     private final LongAdder count = new LongAdder();
+    private volatile boolean touched;
 
     /**
      * Creates a new {@link Histogram} with the given sample type.
@@ -79,6 +81,10 @@ public class Histogram implements Metric, Sampling, Summarizable {
         clear();
     }
 
+    Sample sample() {
+        return sample;
+    }
+
     /**
      * Clears all recorded values.
      */
@@ -106,6 +112,7 @@ public class Histogram implements Metric, Sampling, Summarizable {
      * @param value the length of the value
      */
     public void update(long value) {
+        touch();
         count.increment();
         sample.update(value);
         setMax(value);
@@ -114,6 +121,26 @@ public class Histogram implements Metric, Sampling, Summarizable {
         updateVariance(value);
     }
 
+    /**
+     * Returns whether the histogram has been updated since the last call, and resets that flag.
+     *
+     * @return whether the histogram has been updated since the last call
+     */
+    boolean untouch() {
+        if (touched) {
+            touched = false;
+            return true;
+        }
+        return false;
+    }
+
+    private void touch() {
+        // only store once per sweep, so that hot metrics don't keep dirtying a shared cache line
+        if (!touched) {
+            touched = true;
+        }
+    }
+
     /**
      * Returns the number of values recorded.
      *
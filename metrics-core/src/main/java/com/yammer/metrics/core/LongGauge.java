@@ -0,0 +1,25 @@
+package com.yammer.metrics.core;
+
+/**
+ * A {@link Gauge} whose value is a {@code long}. Reporters read it through {@link #longValue()}
+ * and {@link MetricProcessor#processLongGauge(MetricName, LongGauge, Object)}, so reporting it
+ * doesn't box the value.
+ */
+public abstract class LongGauge extends Gauge<Long> {
+    /**
+     * Returns the metric's current value.
+     *
+     * @return the metric's current value
+     */
+    public abstract long longValue();
+
+    @Override
+    public final Long value() {
+        return longValue();
+    }
+
+    @Override
+    public <U> void processWith(MetricProcessor<U> processor, MetricName name, U context) throws Exception {
+        processor.processLongGauge(name, this, context);
+    }
+}
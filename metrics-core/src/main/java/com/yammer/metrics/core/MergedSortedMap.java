@@ -0,0 +1,233 @@
+package com.yammer.metrics.core;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * An unmodifiable, sorted view of several sorted maps, merged as they're read rather than copied.
+ * A key which is in more than one map appears once, with the values of every map which has it,
+ * in the order the maps were given, combined into one; any other key keeps its value as it is.
+ * <p/>
+ * Iterating over the view merges the maps' own iterators, so it takes {@code O(n log m)} time for
+ * {@code n} entries in {@code m} maps, and it's as consistent as they are. Looking up a key asks
+ * each map in turn, and {@link #size()} iterates over the whole view.
+ *
+ * @param <K> the type of the keys, which are sorted by their natural order
+ * @param <V> the type of the values
+ */
+final class MergedSortedMap<K extends Comparable<? super K>, V> extends AbstractMap<K, V>
+        implements SortedMap<K, V> {
+    private final List<SortedMap<K, V>> maps;
+    private final Function<List<V>, V> combine;
+    private final Set<Map.Entry<K, V>> entrySet = new AbstractSet<Map.Entry<K, V>>() {
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+            return new MergingIterator();
+        }
+
+        @Override
+        public int size() {
+            int size = 0;
+            for (Iterator<Map.Entry<K, V>> i = iterator(); i.hasNext(); i.next()) {
+                size++;
+            }
+            return size;
+        }
+    };
+
+    /**
+     * Creates a new {@link MergedSortedMap}.
+     *
+     * @param maps    the maps to merge, which are sorted by the natural order of their keys
+     * @param combine combines the values of a key which is in more than one map, given in the
+     *                order of {@code maps}
+     */
+    MergedSortedMap(List<SortedMap<K, V>> maps, Function<List<V>, V> combine) {
+        this.maps = maps;
+        this.combine = combine;
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return entrySet;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (SortedMap<K, V> map : maps) {
+            if (!map.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        for (SortedMap<K, V> map : maps) {
+            if (map.containsKey(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public V get(Object key) {
+        List<V> values = null;
+        V first = null;
+        for (SortedMap<K, V> map : maps) {
+            final V value = map.get(key);
+            if (value == null) {
+                continue;
+            }
+            if (first == null) {
+                first = value;
+            } else {
+                if (values == null) {
+                    values = new ArrayList<V>(maps.size());
+                    values.add(first);
+                }
+                values.add(value);
+            }
+        }
+        return values == null ? first : combine.apply(values);
+    }
+
+    @Override
+    public Comparator<? super K> comparator() {
+        return null;
+    }
+
+    @Override
+    public SortedMap<K, V> subMap(K fromKey, K toKey) {
+        final List<SortedMap<K, V>> subMaps = new ArrayList<SortedMap<K, V>>(maps.size());
+        for (SortedMap<K, V> map : maps) {
+            subMaps.add(map.subMap(fromKey, toKey));
+        }
+        return new MergedSortedMap<K, V>(subMaps, combine);
+    }
+
+    @Override
+    public SortedMap<K, V> headMap(K toKey) {
+        final List<SortedMap<K, V>> headMaps = new ArrayList<SortedMap<K, V>>(maps.size());
+        for (SortedMap<K, V> map : maps) {
+            headMaps.add(map.headMap(toKey));
+        }
+        return new MergedSortedMap<K, V>(headMaps, combine);
+    }
+
+    @Override
+    public SortedMap<K, V> tailMap(K fromKey) {
+        final List<SortedMap<K, V>> tailMaps = new ArrayList<SortedMap<K, V>>(maps.size());
+        for (SortedMap<K, V> map : maps) {
+            tailMaps.add(map.tailMap(fromKey));
+        }
+        return new MergedSortedMap<K, V>(tailMaps, combine);
+    }
+
+    @Override
+    public K firstKey() {
+        final Iterator<Map.Entry<K, V>> entries = entrySet.iterator();
+        if (!entries.hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return entries.next().getKey();
+    }
+
+    @Override
+    public K lastKey() {
+        K last = null;
+        for (SortedMap<K, V> map : maps) {
+            if (!map.isEmpty()) {
+                final K key = map.lastKey();
+                if (last == null || key.compareTo(last) > 0) {
+                    last = key;
+                }
+            }
+        }
+        if (last == null) {
+            throw new NoSuchElementException();
+        }
+        return last;
+    }
+
+    /**
+     * The next entry of one of the merged maps.
+     */
+    private static class Head<K extends Comparable<? super K>, V> {
+        private final int index;
+        private final Iterator<Map.Entry<K, V>> entries;
+        private Map.Entry<K, V> entry;
+
+        private Head(int index, Iterator<Map.Entry<K, V>> entries) {
+            this.index = index;
+            this.entries = entries;
+        }
+
+        private boolean advance() {
+            if (entries.hasNext()) {
+                this.entry = entries.next();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private class MergingIterator implements Iterator<Map.Entry<K, V>> {
+        // ordered by key, then by the order of the maps, so that a key's values are combined in order
+        private final PriorityQueue<Head<K, V>> heads = new PriorityQueue<Head<K, V>>(
+                Math.max(1, maps.size()),
+                (a, b) -> {
+                    final int byKey = a.entry.getKey().compareTo(b.entry.getKey());
+                    return byKey != 0 ? byKey : Integer.compare(a.index, b.index);
+                });
+        private final List<Head<K, V>> sameKey = new ArrayList<Head<K, V>>();
+
+        private MergingIterator() {
+            for (int i = 0; i < maps.size(); i++) {
+                final Head<K, V> head = new Head<K, V>(i, maps.get(i).entrySet().iterator());
+                if (head.advance()) {
+                    heads.add(head);
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            final Head<K, V> first = heads.poll();
+            if (first == null) {
+                throw new NoSuchElementException();
+            }
+            final K key = first.entry.getKey();
+            sameKey.add(first);
+            while (!heads.isEmpty() && heads.peek().entry.getKey().compareTo(key) == 0) {
+                sameKey.add(heads.poll());
+            }
+
+            final V value;
+            if (sameKey.size() == 1) {
+                value = first.entry.getValue();
+            } else {
+                final List<V> values = new ArrayList<V>(sameKey.size());
+                for (Head<K, V> head : sameKey) {
+                    values.add(head.entry.getValue());
+                }
+                value = combine.apply(values);
+            }
+
+            for (Head<K, V> head : sameKey) {
+                if (head.advance()) {
+                    heads.add(head);
+                }
+            }
+            sameKey.clear();
+            return new AbstractMap.SimpleImmutableEntry<K, V>(key, value);
+        }
+    }
+}
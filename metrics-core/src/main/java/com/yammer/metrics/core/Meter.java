@@ -26,6 +26,7 @@ public class Meter implements Metered, Stoppable {
     private final String eventType;
     private final ScheduledFuture<?> future;
     private final Clock clock;
+    private volatile boolean touched;
 
     /**
      * Creates a new {@link Meter}.
@@ -59,6 +60,26 @@ public class Meter implements Metered, Stoppable {
         return eventType;
     }
 
+    /**
+     * Returns whether the meter has been updated since the last call, and resets that flag.
+     *
+     * @return whether the meter has been updated since the last call
+     */
+    boolean untouch() {
+        if (touched) {
+            touched = false;
+            return true;
+        }
+        return false;
+    }
+
+    private void touch() {
+        // only store once per sweep, so that hot metrics don't keep dirtying a shared cache line
+        if (!touched) {
+            touched = true;
+        }
+    }
+
     /**
      * Updates the moving averages.
      */
@@ -81,6 +102,7 @@ public class Meter implements Metered, Stoppable {
      * @param n the number of events
      */
     public void mark(long n) {
+        touch();
         count.add(n);
         m1Rate.update(n);
         m5Rate.update(n);
@@ -0,0 +1,124 @@
+package com.yammer.metrics.core;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * A family of metrics which share a name and differ by the values of a fixed set of tags, e.g. a
+ * request timer per endpoint and status:
+ * <pre><code>
+ * final MetricFamily&lt;Timer&gt; requests = registry.timerFamily(name, "endpoint", "status");
+ * ...
+ * requests.labels("GET /users", "200").update(duration, NANOSECONDS);
+ * </code></pre>
+ * Each member is registered as a normal metric whose name has the family's tags, so reporters
+ * see nothing special. Looking a member up by its tag values doesn't build a {@link MetricName}
+ * or a map of tags once the member exists. The family only keeps the members which are
+ * registered: a member is dropped when its metric is removed, e.g. once it's idle, and values
+ * which are rejected by {@link MetricsRegistry#setMaxMetrics(int)} aren't kept at all.
+ *
+ * @param <T> the type of the metrics
+ * @see MetricsRegistry#newFamily(MetricName, Function, String...)
+ */
+public class MetricFamily<T extends Metric> {
+    private final MetricsRegistry registry;
+    private final MetricName name;
+    private final String[] labelNames;
+    private final Function<MetricName, T> factory;
+    private final ConcurrentMap<Labels, Member> members = new ConcurrentHashMap<Labels, Member>();
+
+    MetricFamily(MetricsRegistry registry, MetricName name, String[] labelNames, Function<MetricName, T> factory) {
+        this.registry = registry;
+        this.name = name;
+        this.labelNames = labelNames.clone();
+        this.factory = factory;
+    }
+
+    /**
+     * Returns the name shared by the family's metrics, without the family's tags.
+     *
+     * @return the family's name
+     */
+    public MetricName name() {
+        return name;
+    }
+
+    /**
+     * Returns the names of the tags which tell the family's metrics apart.
+     *
+     * @return the names of the family's tags
+     */
+    public String[] labelNames() {
+        return labelNames.clone();
+    }
+
+    /**
+     * Returns the member of the family with the given tag values, creating and registering it if
+     * it doesn't exist.
+     *
+     * @param values the values of the family's tags, in the order of {@link #labelNames()}
+     * @return the metric with the given tag values
+     */
+    public T labels(String... values) {
+        if (values.length != labelNames.length) {
+            throw new IllegalArgumentException("Expected " + labelNames.length + " tag values but got " + values.length);
+        }
+        final Labels labels = new Labels(values);
+        Member member = members.get(labels);
+        if (member == null) {
+            // copy the values, since the caller may reuse the array
+            member = new Member(new Labels(values.clone()));
+            final Member raced = members.putIfAbsent(member.labels, member);
+            if (raced != null) {
+                member = raced;
+            }
+        }
+        return member.get();
+    }
+
+    private MetricName memberName(String[] values) {
+        final Map<String, String> tags = new HashMap<String, String>(name.getTags());
+        for (int i = 0; i < labelNames.length; i++) {
+            tags.put(labelNames[i], values[i]);
+        }
+        return new MetricName(name.getGroup(), name.getType(), name.getName(), name.getScope(), tags);
+    }
+
+    private final class Member extends MetricHandle<T> {
+        private final Labels labels;
+
+        private Member(Labels labels) {
+            super(memberName(labels.values), factory, registry);
+            this.labels = labels;
+        }
+
+        @Override
+        void released() {
+            members.remove(labels, this);
+        }
+    }
+
+    private static final class Labels {
+        private final String[] values;
+        private final int hash;
+
+        private Labels(String[] values) {
+            this.values = values;
+            this.hash = Arrays.hashCode(values);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return this == o || (o instanceof Labels && Arrays.equals(values, ((Labels) o).values));
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
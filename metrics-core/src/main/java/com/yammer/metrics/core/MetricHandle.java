@@ -0,0 +1,89 @@
+package com.yammer.metrics.core;
+
+import java.util.function.Function;
+
+/**
+ * A reusable reference to the metric registered under a given name, for code which would otherwise
+ * look the metric up in the registry on every use. Once the metric exists, {@link #get()} is a
+ * single volatile read. If the metric is removed from the registry, the next call to {@link #get()}
+ * creates and registers a new one, so metrics looked up through a handle may be removed once
+ * they're idle.
+ *
+ * @param <T> the type of the metric
+ * @see MetricsRegistry#newHandle(MetricName, Function)
+ */
+public class MetricHandle<T extends Metric> {
+    private final MetricName name;
+    private final Function<MetricName, T> factory;
+    private final MetricsRegistry registry;
+    private volatile T metric;
+    // the handle which is tracked in this one's place, if another one was tracked first
+    private volatile MetricHandle<T> delegate;
+
+    MetricHandle(MetricName name, Function<MetricName, T> factory, MetricsRegistry registry) {
+        this.name = name;
+        this.factory = factory;
+        this.registry = registry;
+    }
+
+    /**
+     * Returns the name of the metric.
+     *
+     * @return the name of the metric
+     */
+    public MetricName name() {
+        return name;
+    }
+
+    /**
+     * Returns the metric, creating and registering it if it doesn't exist.
+     *
+     * @return the metric
+     */
+    public T get() {
+        final T current = metric;
+        if (current != null) {
+            return current;
+        }
+        final MetricHandle<T> tracked = delegate;
+        if (tracked != null) {
+            return tracked.get();
+        }
+        return load();
+    }
+
+    @SuppressWarnings("unchecked")
+    private T load() {
+        final T loaded = factory.apply(name);
+        final MetricHandle<?> tracked = registry.track(this);
+        if (tracked == this) {
+            metric = loaded;
+            if (!registry.isRegistered(name, loaded)) {
+                // removed while we were loading it, or never registered, so don't hang on to it
+                metric = null;
+                registry.untrack(this);
+                released();
+            } else {
+                registry.expireWhenIdle(name, loaded);
+            }
+        } else {
+            // another handle follows the metric, so use its cached metric rather than calling the
+            // factory on every get()
+            delegate = (MetricHandle<T>) tracked;
+            released();
+        }
+        return loaded;
+    }
+
+    void invalidate() {
+        metric = null;
+        released();
+    }
+
+    /**
+     * Called when the registry lets go of this handle, because its metric was removed or it
+     * couldn't register one.
+     */
+    void released() {
+    }
+}
@@ -21,6 +21,9 @@ public class MetricName implements Comparable<MetricName> {
     private final String scope;
     private final Optional<String> mBeanName;
     private final Map<String, String> tags;
+    private final int hash;
+    // built on first use; racy publication is safe because strings are immutable
+    private String canonicalName;
 
     /**
      * Creates a new {@link MetricName} without a scope.
@@ -145,6 +148,7 @@ public class MetricName implements Comparable<MetricName> {
         this.scope = scope;
         this.mBeanName = mBeanName;
         this.tags = new HashMap<>(tags);
+        this.hash = Objects.hash(this.group, this.type, name, scope, mBeanName, this.tags);
     }
 
     /**
@@ -200,7 +204,12 @@ public class MetricName implements Comparable<MetricName> {
      * @return the MBean name
      */
     public String getMBeanName() {
-        return mBeanName.orElseGet(this::createMBeanName);
+        String canonical = canonicalName;
+        if (canonical == null) {
+            canonical = mBeanName.orElseGet(this::createMBeanName);
+            canonicalName = canonical;
+        }
+        return canonical;
     }
 
     public Map<String, String> getTags() {
@@ -212,7 +221,8 @@ public class MetricName implements Comparable<MetricName> {
         if (this == o) { return true; }
         if (o == null || getClass() != o.getClass()) { return false; }
         final MetricName that = (MetricName) o;
-        return Objects.equals(group, that.group) &&
+        return hash == that.hash &&
+            Objects.equals(group, that.group) &&
             Objects.equals(type, that.type) &&
             Objects.equals(name, that.name) &&
             Objects.equals(scope, that.scope) &&
@@ -222,17 +232,20 @@ public class MetricName implements Comparable<MetricName> {
 
     @Override
     public int hashCode() {
-        return Objects.hash(group, type, name, scope, mBeanName, tags);
+        return hash;
     }
 
     @Override
     public String toString() {
-        return mBeanName.orElseGet(this::createMBeanName);
+        return getMBeanName();
     }
 
     @Override
     public int compareTo(MetricName o) {
-        return toString().compareTo(o.toString());
+        if (this == o) {
+            return 0;
+        }
+        return getMBeanName().compareTo(o.getMBeanName());
     }
 
     private String createMBeanName() {
@@ -55,4 +55,30 @@ public interface MetricProcessor<T> {
      * @throws Exception if something goes wrong
      */
     void processGauge(MetricName name, Gauge<?> gauge, T context) throws Exception;
+
+    /**
+     * Process the given {@code long} gauge. Defaults to {@link #processGauge(MetricName, Gauge,
+     * Object)}; override it to read the value without boxing.
+     *
+     * @param name       the name of the gauge
+     * @param gauge      the gauge
+     * @param context    the context of the meter
+     * @throws Exception if something goes wrong
+     */
+    default void processLongGauge(MetricName name, LongGauge gauge, T context) throws Exception {
+        processGauge(name, gauge, context);
+    }
+
+    /**
+     * Process the given {@code double} gauge. Defaults to {@link #processGauge(MetricName, Gauge,
+     * Object)}; override it to read the value without boxing.
+     *
+     * @param name       the name of the gauge
+     * @param gauge      the gauge
+     * @param context    the context of the meter
+     * @throws Exception if something goes wrong
+     */
+    default void processDoubleGauge(MetricName name, DoubleGauge gauge, T context) throws Exception {
+        processGauge(name, gauge, context);
+    }
 }
@@ -0,0 +1,76 @@
+package com.yammer.metrics.core;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A {@link MetricPredicate} which matches metrics by the prefix of their group name (the
+ * {@code group.type[.scope]} keys of {@link MetricsRegistry#groupedMetrics()}) and by their tags.
+ * <p/>
+ * Like any predicate, it can be evaluated against each metric in turn, but {@link MetricsRegistry}
+ * recognizes it and answers it from its indexes instead, so that the cost of a query depends on
+ * the number of metrics it matches rather than on the number of metrics in the registry.
+ */
+public class MetricQuery implements MetricPredicate {
+    private final String prefix;
+    private final Map<String, String> tags;
+
+    /**
+     * Creates a new {@link MetricQuery} which matches metrics whose group name starts with the
+     * given prefix.
+     *
+     * @param prefix the prefix of the group names to match
+     */
+    public MetricQuery(String prefix) {
+        this(prefix, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * Creates a new {@link MetricQuery} which matches metrics with all of the given tags.
+     *
+     * @param tags the tags to match
+     */
+    public MetricQuery(Map<String, String> tags) {
+        this("", tags);
+    }
+
+    /**
+     * Creates a new {@link MetricQuery} which matches metrics whose group name starts with the
+     * given prefix and which have all of the given tags.
+     *
+     * @param prefix the prefix of the group names to match
+     * @param tags   the tags to match
+     */
+    public MetricQuery(String prefix, Map<String, String> tags) {
+        if (prefix == null || tags == null) {
+            throw new IllegalArgumentException("Both prefix and tags need to be specified");
+        }
+        this.prefix = prefix;
+        this.tags = Collections.unmodifiableMap(new HashMap<String, String>(tags));
+    }
+
+    /**
+     * Returns the prefix of the group names to match.
+     *
+     * @return the prefix of the group names to match
+     */
+    public String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * Returns the tags to match.
+     *
+     * @return the tags to match
+     */
+    public Map<String, String> getTags() {
+        return tags;
+    }
+
+    @Override
+    public boolean matches(MetricName name, Metric metric) {
+        return MetricsRegistry.groupKey(name).startsWith(prefix) &&
+                name.getTags().entrySet().containsAll(tags.entrySet());
+    }
+}
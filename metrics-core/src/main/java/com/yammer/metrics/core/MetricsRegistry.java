@@ -2,20 +2,50 @@ package com.yammer.metrics.core;
 
 import com.yammer.metrics.core.Histogram.SampleType;
 import com.yammer.metrics.stats.Sample;
+import com.yammer.metrics.stats.UniformSample;
+import com.yammer.metrics.stats.UniformTimeWindowedSample;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * A registry of metric instances.
  */
 public class MetricsRegistry {
     private static final int EXPECTED_METRIC_COUNT = 1024;
+    private static final MetricName REJECTED_METRICS = new MetricName(MetricsRegistry.class, "rejected-metrics");
     private final Clock clock;
     private final ConcurrentMap<MetricName, Metric> metrics;
-    private final ThreadPools threadPools;
+    private final ConcurrentMap<MetricName, MetricHandle<?>> handles;
+    private final ConcurrentSkipListMap<String, ConcurrentSkipListMap<MetricName, Metric>> groups;
+    private final SortedMap<String, SortedMap<MetricName, Metric>> groupViews;
+    private final ConcurrentMap<Map.Entry<String, String>, Set<MetricName>> tagIndex;
+    private final ConcurrentMap<String, Integer> groupSizes;
+    private final Object groupsLock = new Object();
+    private final ConcurrentMap<String, Integer> groupLimits;
+    // keyed by the overflow metric's kind, which is also its scope
+    private final ConcurrentMap<String, Metric> overflowMetrics;
+    private final ConcurrentMap<MetricName, Set<MetricName>> siblings;
+    // the metrics which may be removed once idle, i.e. those looked up through a handle
+    private final ConcurrentMap<MetricName, Expiring> expiring;
+    private final Object expiryLock = new Object();
+    private ScheduledFuture<?> expiry;
+    private volatile int maxMetrics = Integer.MAX_VALUE;
+    private volatile int maxMetricsPerGroup = Integer.MAX_VALUE;
+    private final MetricsScheduler threadPools;
     private final List<MetricsRegistryListener> listeners;
+    private final Queue<ListenerEvent> events;
+    private final ReentrantLock dispatchLock = new ReentrantLock();
+    private final AtomicBoolean dispatchScheduled = new AtomicBoolean();
+    private volatile Executor listenerExecutor;
+    private final Object gaugePollerLock = new Object();
+    private volatile GaugePoller gaugePoller;
+    private volatile int gaugePollParallelism = 1;
+    private final List<MetricsRegistry> children = new CopyOnWriteArrayList<MetricsRegistry>();
 
     /**
      * Creates a new {@link MetricsRegistry}.
@@ -30,10 +60,32 @@ public class MetricsRegistry {
      * @param clock    a {@link Clock} instance
      */
     public MetricsRegistry(Clock clock) {
+        this(clock, new ThreadPools());
+    }
+
+    /**
+     * Creates a new {@link MetricsRegistry} with the given {@link Clock} instance, whose meters,
+     * polling gauges and reporters run on the given scheduler's thread pools.
+     *
+     * @param clock     a {@link Clock} instance
+     * @param scheduler the scheduler which provides the registry's thread pools, e.g.
+     *                  {@link MetricsScheduler#shared(int)} to share a fixed number of threads
+     */
+    public MetricsRegistry(Clock clock, MetricsScheduler scheduler) {
         this.clock = clock;
         this.metrics = newMetricsMap();
-        this.threadPools = new ThreadPools();
+        this.handles = new ConcurrentHashMap<MetricName, MetricHandle<?>>();
+        this.groups = new ConcurrentSkipListMap<String, ConcurrentSkipListMap<MetricName, Metric>>();
+        this.groupViews = new ConcurrentSkipListMap<String, SortedMap<MetricName, Metric>>();
+        this.tagIndex = new ConcurrentHashMap<Map.Entry<String, String>, Set<MetricName>>();
+        this.groupSizes = new ConcurrentHashMap<String, Integer>();
+        this.groupLimits = new ConcurrentHashMap<String, Integer>();
+        this.overflowMetrics = new ConcurrentHashMap<String, Metric>();
+        this.siblings = new ConcurrentHashMap<MetricName, Set<MetricName>>();
+        this.expiring = new ConcurrentHashMap<MetricName, Expiring>();
+        this.threadPools = scheduler;
         this.listeners = new CopyOnWriteArrayList<MetricsRegistryListener>();
+        this.events = new ConcurrentLinkedQueue<ListenerEvent>();
     }
 
     /**
@@ -156,12 +208,34 @@ public class MetricsRegistry {
                                                         TimeUnit pollIntervalUnit) {
         Function<MetricName, Histogram> metricCreator = (ignored) -> {
             StoppableHistogram histogram = new StoppableHistogram(SampleType.BIASED);
-            Stoppable stoppable = PollingGauge.poll(metric, histogram, newGaugePollThreadPool(), pollInterval, pollIntervalUnit);
+            Stoppable stoppable = gaugePoller().poll(metric, histogram, pollInterval, pollIntervalUnit);
             histogram.setStoppable(stoppable);
             return histogram;
         };
 
-        return getOrAdd(metricName, metricCreator);
+        return getOrAdd(metricName, metricCreator, () -> overflowKind(StoppableHistogram.class, "biased"));
+    }
+
+    /**
+     * Sets the number of threads which read each group of polling gauges. Polling gauges with the
+     * same poll interval are read together by one task, so a large group can take a while on a
+     * single thread. The poller records how late each group's poll starts, how long it takes and
+     * how many gauges fail under {@code GaugePoller}'s {@code drift}, {@code duration} and
+     * {@code failures} metrics. If polling gauges already exist, the poller's threads are added
+     * to as needed.
+     *
+     * @param parallelism the number of threads which read each group of polling gauges
+     */
+    public void setGaugePollParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+        synchronized (gaugePollerLock) {
+            this.gaugePollParallelism = parallelism;
+            if (gaugePoller != null) {
+                gaugePoller.setParallelism(parallelism);
+            }
+        }
     }
 
     /**
@@ -198,7 +272,42 @@ public class MetricsRegistry {
      */
     public Counter newCounter(MetricName metricName) {
         Function<MetricName, Counter> metricCreator = (ignored) -> new Counter();
-        return getOrAdd(metricName, metricCreator);
+        return getOrAdd(metricName, metricCreator, () -> overflowKind(Counter.class));
+    }
+
+    /**
+     * Creates a new {@link BufferedCounter} and registers it under the given class and name.
+     *
+     * @param klass the class which owns the metric
+     * @param name  the name of the metric
+     * @return a new {@link BufferedCounter}
+     */
+    public BufferedCounter newBufferedCounter(Class<?> klass,
+                                              String name) {
+        return newBufferedCounter(createName(klass, name, null));
+    }
+
+    /**
+     * Creates a new {@link BufferedCounter} and registers it under the given metric name, with
+     * each thread buffering up to {@link BufferedCounter#DEFAULT_FLUSH_THRESHOLD} updates.
+     *
+     * @param metricName the name of the metric
+     * @return a new {@link BufferedCounter}
+     */
+    public BufferedCounter newBufferedCounter(MetricName metricName) {
+        return newBufferedCounter(metricName, BufferedCounter.DEFAULT_FLUSH_THRESHOLD);
+    }
+
+    /**
+     * Creates a new {@link BufferedCounter} and registers it under the given metric name.
+     *
+     * @param metricName     the name of the metric
+     * @param flushThreshold the number of updates each thread buffers before publishing them
+     * @return a new {@link BufferedCounter}
+     */
+    public BufferedCounter newBufferedCounter(MetricName metricName, int flushThreshold) {
+        Function<MetricName, BufferedCounter> metricCreator = (ignored) -> new BufferedCounter(flushThreshold);
+        return getOrAdd(metricName, metricCreator, () -> overflowKind(BufferedCounter.class));
     }
 
     /**
@@ -270,7 +379,7 @@ public class MetricsRegistry {
         Function<MetricName, Histogram> metricCreator = (ignored) -> {
             return new Histogram(biased ? SampleType.BIASED : SampleType.UNIFORM);
         };
-        return getOrAdd(metricName, metricCreator);
+        return getOrAdd(metricName, metricCreator, () -> overflowKind(Histogram.class, biased ? "biased" : "uniform"));
     }
 
     /**
@@ -283,7 +392,7 @@ public class MetricsRegistry {
     public Histogram newHistogram(MetricName metricName,
                                   Sample sample) {
         Function<MetricName, Histogram> metricCreator = (ignored) -> new Histogram(sample);
-        return getOrAdd(metricName, metricCreator);
+        return getOrAdd(metricName, metricCreator, () -> overflowKind(Histogram.class, sampleKind(sample)));
     }
 
     /**
@@ -337,7 +446,7 @@ public class MetricsRegistry {
         Function<MetricName, Meter> metricCreator = (ignored) -> {
             return new Meter(newMeterTickThreadPool(), eventType, unit, clock);
         };
-        return getOrAdd(metricName, metricCreator);
+        return getOrAdd(metricName, metricCreator, () -> overflowKind(Meter.class, eventType, unit));
     }
 
     /**
@@ -416,56 +525,517 @@ public class MetricsRegistry {
         Function<MetricName, Timer> metricCreator = (ignored) -> {
             return new Timer(newMeterTickThreadPool(), durationUnit, rateUnit, clock);
         };
-        return getOrAdd(metricName, metricCreator);
+        return getOrAdd(metricName, metricCreator, () -> overflowKind(Timer.class, durationUnit, rateUnit));
+    }
+
+    /**
+     * Creates a new {@link Timer} which only times the calls chosen by the given sampling policy
+     * and registers it under the given metric name.
+     *
+     * @param metricName     the name of the metric
+     * @param durationUnit   the duration scale unit of the new timer
+     * @param rateUnit       the rate scale unit of the new timer
+     * @param samplingPolicy the policy deciding which calls are timed
+     * @return a new {@link Timer}
+     */
+    public Timer newTimer(MetricName metricName,
+                          TimeUnit durationUnit,
+                          TimeUnit rateUnit,
+                          SamplingPolicy samplingPolicy) {
+        return newTimer(metricName, durationUnit, rateUnit, samplingPolicy, false);
+    }
+
+    /**
+     * Creates a new {@link Timer} and registers it under the given metric name. If the timer
+     * tracks in-flight calls, its in-flight and peak in-flight gauges are registered under the
+     * same name with {@code -in-flight} and {@code -peak-in-flight} suffixes.
+     *
+     * @param metricName     the name of the metric
+     * @param durationUnit   the duration scale unit of the new timer
+     * @param rateUnit       the rate scale unit of the new timer
+     * @param samplingPolicy the policy deciding which calls are timed
+     * @param trackInFlight  whether the timer tracks the number of in-flight calls
+     * @return a new {@link Timer}
+     */
+    public Timer newTimer(MetricName metricName,
+                          TimeUnit durationUnit,
+                          TimeUnit rateUnit,
+                          SamplingPolicy samplingPolicy,
+                          boolean trackInFlight) {
+        Function<MetricName, Timer> metricCreator = (ignored) -> {
+            return new Timer(newMeterTickThreadPool(), durationUnit, rateUnit, clock, samplingPolicy, trackInFlight);
+        };
+        final Timer timer = getOrAdd(metricName, metricCreator, () -> trackInFlight ?
+                overflowKind(Timer.class, durationUnit, rateUnit, "in-flight") :
+                overflowKind(Timer.class, durationUnit, rateUnit));
+        if (timer.inFlight() != null) {
+            newSiblingGauge(metricName, "-in-flight", timer.inFlight());
+            newSiblingGauge(metricName, "-peak-in-flight", timer.peakInFlight());
+        }
+        return timer;
+    }
+
+    /**
+     * Creates a new {@link CpuTimer} which records the CPU time of every timed section and
+     * registers it, along with its CPU utilisation gauge, under the given class and name.
+     *
+     * @param klass the class which owns the metric
+     * @param name  the name of the metric
+     * @return a new {@link CpuTimer}
+     */
+    public CpuTimer newCpuTimer(Class<?> klass,
+                                String name) {
+        return newCpuTimer(createName(klass, name, null), TimeUnit.MILLISECONDS, TimeUnit.SECONDS, 1);
+    }
+
+    /**
+     * Creates a new {@link CpuTimer} and registers it under the given metric name. Its CPU
+     * utilisation gauge is registered under the same name with a {@code -cpu-utilisation} suffix.
+     *
+     * @param metricName    the name of the metric
+     * @param durationUnit  the duration scale unit of the new timer
+     * @param rateUnit      the rate scale unit of the new timer
+     * @param cpuSampleRate record CPU time for one in every {@code cpuSampleRate} timed sections
+     * @return a new {@link CpuTimer}
+     */
+    public CpuTimer newCpuTimer(MetricName metricName,
+                                TimeUnit durationUnit,
+                                TimeUnit rateUnit,
+                                int cpuSampleRate) {
+        return newCpuTimer(metricName, durationUnit, rateUnit, new Clock.CpuTimeClock(), cpuSampleRate);
+    }
+
+    /**
+     * Creates a new {@link CpuTimer} and registers it under the given metric name. Its CPU
+     * utilisation gauge is registered under the same name with a {@code -cpu-utilisation} suffix.
+     *
+     * @param metricName    the name of the metric
+     * @param durationUnit  the duration scale unit of the new timer
+     * @param rateUnit      the rate scale unit of the new timer
+     * @param cpuClock      the clock used to measure CPU time
+     * @param cpuSampleRate record CPU time for one in every {@code cpuSampleRate} timed sections
+     * @return a new {@link CpuTimer}
+     */
+    public CpuTimer newCpuTimer(MetricName metricName,
+                                TimeUnit durationUnit,
+                                TimeUnit rateUnit,
+                                Clock cpuClock,
+                                int cpuSampleRate) {
+        Function<MetricName, CpuTimer> metricCreator = (ignored) -> {
+            return new CpuTimer(newMeterTickThreadPool(), durationUnit, rateUnit, clock, cpuClock, cpuSampleRate);
+        };
+        final CpuTimer timer = getOrAdd(metricName, metricCreator,
+                                        () -> overflowKind(CpuTimer.class, durationUnit, rateUnit));
+        newSiblingGauge(metricName, "-cpu-utilisation", timer.cpuUtilisation());
+        return timer;
+    }
+
+    /**
+     * Returns a reusable handle to the metric with the given name, which creates the metric with
+     * the given factory whenever it doesn't exist. Callers which use the same metric over and over
+     * should keep the handle instead of looking the metric up each time:
+     * <pre><code>
+     * final MetricHandle&lt;Timer&gt; requests =
+     *         registry.newHandle(name, n -&gt; registry.newTimer(n, MILLISECONDS, SECONDS));
+     * ...
+     * requests.get().update(duration, NANOSECONDS);
+     * </code></pre>
+     * There is one handle per name; if a handle already exists for {@code metricName}, it's
+     * returned and {@code factory} is ignored. The registry lets go of a handle when its metric
+     * is removed, or when the handle finds that its metric couldn't be registered, e.g. because
+     * it was rejected by {@link #setMaxMetrics(int)}. A handle which was let go of and is still
+     * in use follows whichever handle has replaced it.
+     *
+     * @param metricName the name of the metric
+     * @param factory    a function which creates and registers the metric under the given name,
+     *                   usually one of this registry's {@code new...} methods
+     * @param <T>        the type of the metric
+     * @return a handle to the metric
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends Metric> MetricHandle<T> newHandle(MetricName metricName,
+                                                        Function<MetricName, T> factory) {
+        final MetricHandle<?> existing = handles.get(metricName);
+        if (existing != null) {
+            return (MetricHandle<T>) existing;
+        }
+        final MetricHandle<T> handle = new MetricHandle<T>(metricName, factory, this);
+        final MetricHandle<?> raced = handles.putIfAbsent(metricName, handle);
+        return raced == null ? handle : (MetricHandle<T>) raced;
+    }
+
+    /**
+     * Returns a family of metrics which share the given name and are told apart by the values of
+     * the given tags. Each member is created with {@code factory} under the name plus its tags.
+     *
+     * @param metricName the name shared by the family's metrics
+     * @param factory    a function which creates and registers a member under the given name,
+     *                   usually one of this registry's {@code new...} methods
+     * @param labelNames the names of the tags which tell the family's metrics apart
+     * @param <T>        the type of the metrics
+     * @return a family of metrics
+     */
+    public <T extends Metric> MetricFamily<T> newFamily(MetricName metricName,
+                                                        Function<MetricName, T> factory,
+                                                        String... labelNames) {
+        return new MetricFamily<T>(this, metricName, labelNames, factory);
+    }
+
+    /**
+     * Returns a family of {@link Counter}s which share the given name and are told apart by the
+     * values of the given tags.
+     *
+     * @param metricName the name shared by the family's counters
+     * @param labelNames the names of the tags which tell the family's counters apart
+     * @return a family of counters
+     */
+    public MetricFamily<Counter> counterFamily(MetricName metricName, String... labelNames) {
+        return newFamily(metricName, this::newCounter, labelNames);
     }
 
     /**
-     * Returns an unmodifiable map of all metrics and their names.
+     * Returns a family of {@link Histogram}s which share the given name and are told apart by the
+     * values of the given tags.
+     *
+     * @param metricName the name shared by the family's histograms
+     * @param biased     whether or not the histograms should be biased
+     * @param labelNames the names of the tags which tell the family's histograms apart
+     * @return a family of histograms
+     */
+    public MetricFamily<Histogram> histogramFamily(MetricName metricName, boolean biased, String... labelNames) {
+        return newFamily(metricName, name -> newHistogram(name, biased), labelNames);
+    }
+
+    /**
+     * Returns a family of {@link Meter}s which share the given name and are told apart by the
+     * values of the given tags.
+     *
+     * @param metricName the name shared by the family's meters
+     * @param eventType  the plural name of the type of events the meters are measuring
+     * @param unit       the rate unit of the meters
+     * @param labelNames the names of the tags which tell the family's meters apart
+     * @return a family of meters
+     */
+    public MetricFamily<Meter> meterFamily(MetricName metricName, String eventType, TimeUnit unit, String... labelNames) {
+        return newFamily(metricName, name -> newMeter(name, eventType, unit), labelNames);
+    }
+
+    /**
+     * Returns a family of {@link Timer}s, measuring in milliseconds and per second, which share
+     * the given name and are told apart by the values of the given tags.
+     *
+     * @param metricName the name shared by the family's timers
+     * @param labelNames the names of the tags which tell the family's timers apart
+     * @return a family of timers
+     */
+    public MetricFamily<Timer> timerFamily(MetricName metricName, String... labelNames) {
+        return timerFamily(metricName, TimeUnit.MILLISECONDS, TimeUnit.SECONDS, labelNames);
+    }
+
+    /**
+     * Returns a family of {@link Timer}s which share the given name and are told apart by the
+     * values of the given tags.
+     *
+     * @param metricName   the name shared by the family's timers
+     * @param durationUnit the duration scale unit of the timers
+     * @param rateUnit     the rate scale unit of the timers
+     * @param labelNames   the names of the tags which tell the family's timers apart
+     * @return a family of timers
+     */
+    public MetricFamily<Timer> timerFamily(MetricName metricName,
+                                           TimeUnit durationUnit,
+                                           TimeUnit rateUnit,
+                                           String... labelNames) {
+        return newFamily(metricName, name -> newTimer(name, durationUnit, rateUnit), labelNames);
+    }
+
+    /**
+     * Sets the maximum number of metrics in this registry. Once it's reached, requests for new
+     * metrics are rejected: each rejection increments the {@code rejected-metrics} counter and,
+     * instead of a new metric, returns a shared overflow metric of the same kind, which is
+     * registered under {@code overflow} with the kind as its scope. The kind includes the settings
+     * which tell such metrics apart, e.g. {@code Timer-milliseconds-seconds} or
+     * {@code Histogram-biased}, so a rejected metric is never replaced by one with other units or
+     * sampling. A rejected {@link Gauge} is returned as it is, without being registered. Metrics
+     * which already exist are still returned.
+     * <p/>
+     * The metrics of child registries count towards the limit, and rejections in a child are
+     * counted and overflow in the registry at the root of its tree. The limit is checked before a
+     * metric is created, so concurrent registrations may overshoot it slightly.
+     *
+     * @param maxMetrics the maximum number of metrics
+     */
+    public void setMaxMetrics(int maxMetrics) {
+        if (maxMetrics < 1) {
+            throw new IllegalArgumentException("maxMetrics must be at least 1");
+        }
+        this.maxMetrics = maxMetrics;
+    }
+
+    /**
+     * Sets the maximum number of metrics in any one group of {@link #groupedMetrics()}. Groups
+     * over their limit reject new metrics as described in {@link #setMaxMetrics(int)}.
+     *
+     * @param maxMetricsPerGroup the maximum number of metrics per group
+     */
+    public void setMaxMetricsPerGroup(int maxMetricsPerGroup) {
+        if (maxMetricsPerGroup < 1) {
+            throw new IllegalArgumentException("maxMetricsPerGroup must be at least 1");
+        }
+        this.maxMetricsPerGroup = maxMetricsPerGroup;
+    }
+
+    /**
+     * Sets the maximum number of metrics in the given group of {@link #groupedMetrics()},
+     * overriding {@link #setMaxMetricsPerGroup(int)} for that group.
+     *
+     * @param group      the group's name, e.g. {@code sql.raw}
+     * @param maxMetrics the maximum number of metrics in the group
+     */
+    public void setMaxMetricsPerGroup(String group, int maxMetrics) {
+        if (maxMetrics < 1) {
+            throw new IllegalArgumentException("maxMetrics must be at least 1");
+        }
+        groupLimits.put(group, maxMetrics);
+    }
+
+    /**
+     * Creates a child registry whose metrics are reported along with this registry's, and whose
+     * names get the given scope. A metric created with a class and name, as library modules like
+     * {@code InstrumentedHandler} do, is scoped with {@code scope}, or with {@code scope.}
+     * followed by its own scope if it has one, so that two instances of a module don't collide.
+     * Metrics created with an explicit {@link MetricName} keep it as it is, so they share one
+     * namespace with this registry's, as described in {@link #allMetrics()}, and they count
+     * towards this registry's limits.
+     * <p/>
+     * The child shares this registry's clock and thread pools. Calling {@link #shutdown()} on the
+     * child detaches it from this registry, so that its metrics are no longer reported, and then
+     * stops and removes each of them, telling listeners as it goes.
+     *
+     * @param scope the scope of the child's metrics
+     * @return a new child registry
+     */
+    public MetricsRegistry newChild(String scope) {
+        return newChild(scope, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * Creates a child registry whose metrics are reported along with this registry's, and whose
+     * names get the given tags, as described in {@link #newChild(String)}.
+     *
+     * @param tags the tags of the child's metrics
+     * @return a new child registry
+     */
+    public MetricsRegistry newChild(Map<String, String> tags) {
+        return newChild(null, tags);
+    }
+
+    /**
+     * Creates a child registry whose metrics are reported along with this registry's, and whose
+     * names get the given scope and tags, as described in {@link #newChild(String)}.
+     *
+     * @param scope the scope of the child's metrics, or {@code null}
+     * @param tags  the tags of the child's metrics
+     * @return a new child registry
+     */
+    public MetricsRegistry newChild(String scope, Map<String, String> tags) {
+        final ChildRegistry child = new ChildRegistry(this, clock, threadPools, scope, tags);
+        children.add(child);
+        child.addListener(new ChildListener());
+        return child;
+    }
+
+    /**
+     * Detaches a child registry, so that its metrics are no longer reported with this registry's.
+     *
+     * @param child the child registry
+     * @return {@code true} if it was one of this registry's children
+     */
+    boolean detach(MetricsRegistry child) {
+        return children.remove(child);
+    }
+
+    /**
+     * Removes and stops all of this registry's metrics and those of its children, invalidating
+     * their handles, and tells listeners they're gone. The registry should already be detached
+     * from its parent, so its indexes are dropped whole, but each metric still has to be stopped
+     * and its removal announced, so this takes time linear in the number of metrics.
+     */
+    void release() {
+        for (MetricsRegistry child : children) {
+            child.release();
+        }
+        children.clear();
+        setIdleExpiry(0, TimeUnit.SECONDS);
+        final GaugePoller poller = gaugePoller;
+        if (poller != null) {
+            poller.stop();
+        }
+        synchronized (groupsLock) {
+            groups.clear();
+            groupViews.clear();
+            groupSizes.clear();
+            tagIndex.clear();
+        }
+        expiring.clear();
+        overflowMetrics.clear();
+        siblings.clear();
+        for (MetricName name : metrics.keySet()) {
+            final Metric metric = removeAndNotify(name, null);
+            if (metric != null) {
+                stop(metric);
+            }
+        }
+        for (MetricHandle<?> handle : handles.values()) {
+            handle.invalidate();
+        }
+        handles.clear();
+        dispatchEvents();
+    }
+
+    /**
+     * Returns an unmodifiable map of all metrics and their names, including those of child
+     * registries. A registry and its children share one namespace: creating a metric under a
+     * name which is already registered anywhere in the tree returns the existing metric. This is
+     * checked before the metric is added, so two registries which concurrently create the same
+     * name may both keep it, in which case the parent's metric is the one in this map.
      *
      * @return an unmodifiable map of all metrics and their names
      */
     public Map<MetricName, Metric> allMetrics() {
-        return Collections.unmodifiableMap(metrics);
+        if (children.isEmpty()) {
+            return Collections.unmodifiableMap(metrics);
+        }
+        final Map<MetricName, Metric> all = new HashMap<MetricName, Metric>();
+        for (MetricsRegistry child : children) {
+            all.putAll(child.allMetrics());
+        }
+        all.putAll(metrics);
+        return Collections.unmodifiableMap(all);
     }
 
     /**
-     * Returns a grouped and sorted map of all registered metrics.
+     * Returns a grouped and sorted map of all registered metrics. The map is a live, unmodifiable
+     * view of an index which is kept up to date as metrics are added and removed, so it's not
+     * rebuilt on each call; iterating over it is weakly consistent.
+     * <p/>
+     * If the registry has children, the map is a view which merges their maps with this
+     * registry's as it's read, rather than a copy. A metric registered by both this registry and
+     * a child appears once, with this registry's instance. Children added after the call aren't
+     * included, and the view's {@code size()} counts the groups by iterating over them.
      *
      * @return all registered metrics, grouped by name and sorted
      */
     public SortedMap<String, SortedMap<MetricName, Metric>> groupedMetrics() {
-        return groupedMetrics(MetricPredicate.ALL);
+        final SortedMap<String, SortedMap<MetricName, Metric>> own = Collections.unmodifiableSortedMap(groupViews);
+        if (children.isEmpty()) {
+            return own;
+        }
+        final List<SortedMap<String, SortedMap<MetricName, Metric>>> all =
+                new ArrayList<SortedMap<String, SortedMap<MetricName, Metric>>>(children.size() + 1);
+        all.add(own);
+        for (MetricsRegistry child : children) {
+            all.add(child.groupedMetrics());
+        }
+        return merged(all);
     }
 
     /**
      * Returns a grouped and sorted map of all registered metrics which match then given {@link
-     * MetricPredicate}.
+     * MetricPredicate}. A {@link MetricQuery} is answered from the registry's indexes without
+     * evaluating it against every metric. The children's matches are merged with this registry's
+     * as the map is read, as described in {@link #groupedMetrics()}.
      *
      * @param predicate a predicate which metrics have to match to be in the results
      * @return all registered metrics which match {@code predicate}, sorted by name
      */
     public SortedMap<String, SortedMap<MetricName, Metric>> groupedMetrics(MetricPredicate predicate) {
-        final SortedMap<String, SortedMap<MetricName, Metric>> groups =
+        if (predicate == MetricPredicate.ALL) {
+            return groupedMetrics();
+        }
+        final SortedMap<String, SortedMap<MetricName, Metric>> own = ownMetrics(predicate);
+        if (children.isEmpty()) {
+            return own;
+        }
+        final List<SortedMap<String, SortedMap<MetricName, Metric>>> all =
+                new ArrayList<SortedMap<String, SortedMap<MetricName, Metric>>>(children.size() + 1);
+        all.add(own);
+        for (MetricsRegistry child : children) {
+            all.add(child.groupedMetrics(predicate));
+        }
+        return merged(all);
+    }
+
+    // the registries' groups are merged with each other, and the first registry's metric wins
+    // within a group
+    private static SortedMap<String, SortedMap<MetricName, Metric>> merged(
+            List<SortedMap<String, SortedMap<MetricName, Metric>>> registries) {
+        return new MergedSortedMap<String, SortedMap<MetricName, Metric>>(
+                registries,
+                groups -> new MergedSortedMap<MetricName, Metric>(groups, metrics -> metrics.get(0)));
+    }
+
+    private SortedMap<String, SortedMap<MetricName, Metric>> ownMetrics(MetricPredicate predicate) {
+        if (predicate instanceof MetricQuery) {
+            return query((MetricQuery) predicate);
+        }
+        final SortedMap<String, SortedMap<MetricName, Metric>> matching =
                 new TreeMap<String, SortedMap<MetricName, Metric>>();
-        for (Map.Entry<MetricName, Metric> entry : metrics.entrySet()) {
-            final String qualifiedTypeName = entry.getKey().getGroup() + "." + entry.getKey()
-                                                                                    .getType();
-            if (predicate.matches(entry.getKey(), entry.getValue())) {
-                final String scopedName;
-                if (entry.getKey().hasScope()) {
-                    scopedName = qualifiedTypeName + "." + entry.getKey().getScope();
-                } else {
-                    scopedName = qualifiedTypeName;
+        for (Map.Entry<String, ConcurrentSkipListMap<MetricName, Metric>> group : groups.entrySet()) {
+            SortedMap<MetricName, Metric> matchingGroup = null;
+            for (Map.Entry<MetricName, Metric> entry : group.getValue().entrySet()) {
+                if (predicate.matches(entry.getKey(), entry.getValue())) {
+                    if (matchingGroup == null) {
+                        matchingGroup = new TreeMap<MetricName, Metric>();
+                        matching.put(group.getKey(), matchingGroup);
+                    }
+                    matchingGroup.put(entry.getKey(), entry.getValue());
                 }
-                SortedMap<MetricName, Metric> group = groups.get(scopedName);
-                if (group == null) {
-                    group = new TreeMap<MetricName, Metric>();
-                    groups.put(scopedName, group);
+            }
+        }
+        return Collections.unmodifiableSortedMap(matching);
+    }
+
+    /**
+     * Reads every metric in the registry, in a single pass, into an immutable
+     * {@link RegistrySnapshot}. Each metric is read once, so everything which serialises the
+     * snapshot reports the same values. The metrics are read one at a time while they're being
+     * updated, though, so the snapshot isn't atomic: only a timer's count is shared by its rates
+     * and its duration summary, and the summary may already include later updates. Gauges which
+     * throw when read are left out, names included.
+     *
+     * @return a snapshot of the registry's metrics
+     */
+    public RegistrySnapshot snapshot() {
+        final List<MetricName> names = new ArrayList<MetricName>(metrics.size());
+        final SnapshotBuilder builder = new SnapshotBuilder();
+        for (SortedMap<MetricName, Metric> group : groupedMetrics().values()) {
+            for (Map.Entry<MetricName, Metric> entry : group.entrySet()) {
+                builder.nameIndex = names.size();
+                try {
+                    entry.getValue().processWith(builder, entry.getKey(), null);
+                } catch (Exception e) {
+                    // only a gauge can throw, before it adds a row, and it's left out
+                    continue;
                 }
-                group.put(entry.getKey(), entry.getValue());
+                names.add(entry.getKey());
             }
         }
-        return Collections.unmodifiableSortedMap(groups);
+        final MetricName[] nameTable = names.toArray(new MetricName[names.size()]);
+        builder.counters.freeze(nameTable);
+        builder.gauges.freeze(nameTable);
+        builder.meters.freeze(nameTable);
+        builder.histograms.freeze(nameTable);
+        builder.timerRates.freeze(nameTable);
+        builder.timerDurations.freeze(nameTable);
+        return new RegistrySnapshot(clock.time(),
+                                    nameTable,
+                                    builder.counters,
+                                    builder.gauges,
+                                    builder.meters,
+                                    builder.histograms,
+                                    builder.timerRates,
+                                    builder.timerDurations);
     }
 
     /**
@@ -477,7 +1047,8 @@ public class MetricsRegistry {
 
     /**
      * Creates a new scheduled thread pool of a given size with the given name, or returns an
-     * existing thread pool if one was already created with the same name.
+     * existing thread pool if one was already created with the same name. The pool comes from
+     * this registry's {@link MetricsScheduler}.
      *
      * @param poolSize the number of threads to create
      * @param name     the name of the pool
@@ -517,12 +1088,71 @@ public class MetricsRegistry {
      * @param name the name of the metric
      */
     public void removeMetric(MetricName name) {
-        final Metric metric = metrics.remove(name);
+        final Metric metric = removeAndNotify(name, null);
         if (metric != null) {
-            if (metric instanceof Stoppable) {
-                ((Stoppable) metric).stop();
+            removed(name, metric);
+            dispatchEvents();
+        }
+    }
+
+    /**
+     * Removes and stops the metrics which haven't been updated for at least the given time, along
+     * with any gauges registered alongside them, such as a timer's in-flight gauges. Listeners are
+     * notified of each removal as usual. Gauges on their own are never idle, since they have no
+     * updates to track.
+     * <p/>
+     * Only metrics which have been looked up through a {@link MetricHandle}, including the members
+     * of a {@link MetricFamily}, are ever removed, since their users get a new metric once the old
+     * one is gone. Metrics created directly are kept, because their creators may hold on to them.
+     * A metric counts as updated if it has been updated since the previous call.
+     *
+     * @param idleTime the time without updates after which a metric is removed
+     * @param unit     the unit of {@code idleTime}
+     */
+    public void removeIdleMetrics(long idleTime, TimeUnit unit) {
+        final long idleNanos = unit.toNanos(idleTime);
+        synchronized (expiryLock) {
+            final long now = clock.tick();
+            for (Map.Entry<MetricName, Expiring> entry : expiring.entrySet()) {
+                final MetricName name = entry.getKey();
+                final Expiring candidate = entry.getValue();
+                final Metric metric = candidate.metric;
+                if (metrics.get(name) != metric) {
+                    // removed, or replaced by a metric which wasn't looked up through a handle
+                    expiring.remove(name, candidate);
+                } else if (untouch(metric)) {
+                    candidate.touched = now;
+                } else if (now - candidate.touched >= idleNanos && removeAndNotify(name, metric) != null) {
+                    removed(name, metric);
+                }
+            }
+        }
+        dispatchEvents();
+    }
+
+    /**
+     * Removes idle metrics in the background, every half of the given idle time, as described in
+     * {@link #removeIdleMetrics(long, TimeUnit)}. Replaces any previously configured expiry.
+     *
+     * @param idleTime the time without updates after which a metric is removed, or {@code 0} to
+     *                 stop removing idle metrics
+     * @param unit     the unit of {@code idleTime}
+     */
+    public void setIdleExpiry(final long idleTime, final TimeUnit unit) {
+        synchronized (expiryLock) {
+            if (expiry != null) {
+                expiry.cancel(false);
+                expiry = null;
+            }
+            if (idleTime > 0) {
+                final long period = Math.max(1, unit.toNanos(idleTime) / 2);
+                expiry = threadPools.newScheduledThreadPool(1, "metrics-expiry").scheduleWithFixedDelay(new Runnable() {
+                    @Override
+                    public void run() {
+                        removeIdleMetrics(idleTime, unit);
+                    }
+                }, period, period, TimeUnit.NANOSECONDS);
             }
-            notifyMetricRemoved(name);
         }
     }
 
@@ -531,14 +1161,28 @@ public class MetricsRegistry {
      * metric creation.  Listeners will be notified in the order in which they are added.
      * <p/>
      * <b>N.B.:</b> The listener will be notified of all existing metrics when it first registers.
+     * Metrics which are added meanwhile are delivered exactly once, either as existing metrics or
+     * as new ones.
      *
      * @param listener the listener that will be notified
      */
     public void addListener(MetricsRegistryListener listener) {
-        listeners.add(listener);
-        for (Map.Entry<MetricName, Metric> entry : metrics.entrySet()) {
-            listener.onMetricAdded(entry.getKey(), entry.getValue());
+        dispatchLock.lock();
+        try {
+            // the other listeners get the events queued so far, which the new one mustn't see twice
+            deliver(coalesce(), null, null);
+            listeners.add(listener);
+            final Map<MetricName, Metric> replayed = new HashMap<MetricName, Metric>();
+            for (Map.Entry<MetricName, Metric> entry : metrics.entrySet()) {
+                replayed.put(entry.getKey(), entry.getValue());
+                listener.onMetricAdded(entry.getKey(), entry.getValue());
+            }
+            // events queued during the replay may or may not be reflected in it
+            deliver(coalesce(), listener, replayed);
+        } finally {
+            dispatchLock.unlock();
         }
+        dispatchEvents();
     }
 
     /**
@@ -580,13 +1224,37 @@ public class MetricsRegistry {
      * @param <T>           the type of the metric
      * @return either the existing metric or the result of {@code metricCreator}
      */
-    @SuppressWarnings("unchecked")
     protected final <T extends Metric> T getOrAdd(MetricName name, Function<MetricName, T> metricCreator) {
-        return (T) metrics.computeIfAbsent(name, (ignored) -> {
-            T metric = metricCreator.apply(name);
-            notifyMetricAdded(name, metric);
-            return metric;
-        });
+        return getOrAdd(name, metricCreator, null);
+    }
+
+    // overflowKind names the kind of metric which metricCreator creates, so that a rejected metric
+    // doesn't have to be created to find its overflow metric; if it's null, it is created
+    @SuppressWarnings("unchecked")
+    private <T extends Metric> T getOrAdd(MetricName name,
+                                          Function<MetricName, T> metricCreator,
+                                          Supplier<String> overflowKind) {
+        // computeIfAbsent locks the key's bin even when the metric exists, so check without it
+        final Metric existingMetric = find(name);
+        if (existingMetric != null) {
+            return (T) existingMetric;
+        }
+        final T metric;
+        if (isOverLimit(name)) {
+            metric = overflowKind == null ?
+                    root().overflow(name, metricCreator.apply(name)) :
+                    root().overflow(name, overflowKind.get(), metricCreator);
+        } else {
+            // only queue the listener events while the bin is locked; they're delivered below
+            metric = (T) metrics.computeIfAbsent(name, (ignored) -> {
+                T created = metricCreator.apply(name);
+                index(name, created);
+                notifyMetricAdded(name, created);
+                return created;
+            });
+        }
+        dispatchEvents();
+        return metric;
     }
 
     /**
@@ -598,43 +1266,687 @@ public class MetricsRegistry {
      * @param <T>    the type of the metric
      * @return either the existing metric or {@code metric}
      */
-    @SuppressWarnings("unchecked")
     @Deprecated
     protected final <T extends Metric> T getOrAdd(MetricName name, T metric) {
-        final Metric existingMetric = metrics.get(name);
+        final T added = add(name, metric);
+        dispatchEvents();
+        return added;
+    }
+
+    /**
+     * Registers the given metrics under their names, notifying listeners once all of them have
+     * been added. Any name which already has a metric keeps it, and the new metric is stopped if
+     * it's {@link Stoppable}. This is cheaper than adding the metrics one at a time when there are
+     * many of them, e.g. on startup.
+     *
+     * @param newMetrics the metrics to register, by name
+     * @return the metrics registered under the given names, which are the existing metrics for
+     *         names which already had one
+     */
+    public Map<MetricName, Metric> register(Map<MetricName, ? extends Metric> newMetrics) {
+        final Map<MetricName, Metric> registered = new LinkedHashMap<MetricName, Metric>(newMetrics.size() * 2);
+        try {
+            for (Map.Entry<MetricName, ? extends Metric> entry : newMetrics.entrySet()) {
+                final Metric metric = add(entry.getKey(), entry.getValue());
+                if (metric != entry.getValue()) {
+                    stop(entry.getValue());
+                }
+                registered.put(entry.getKey(), metric);
+            }
+        } finally {
+            dispatchEvents();
+        }
+        return registered;
+    }
+
+    /**
+     * Sets the executor which delivers events to this registry's listeners. By default, events
+     * are delivered by the thread which added or removed the metric, after it has done so; with
+     * an executor, they're delivered in the background and creating a metric never waits for a
+     * listener. Either way, each listener sees events in order, one at a time, and a metric which
+     * is removed before its addition has been delivered is never delivered at all.
+     *
+     * @param executor the executor which delivers events, or {@code null} to deliver them on the
+     *                 calling thread
+     */
+    public void setListenerExecutor(Executor executor) {
+        this.listenerExecutor = executor;
+        dispatchEvents();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends Metric> T add(MetricName name, T metric) {
+        final Metric existingMetric = find(name);
         if (existingMetric == null) {
-            final Metric justAddedMetric = metrics.putIfAbsent(name, metric);
-            if (justAddedMetric == null) {
-                notifyMetricAdded(name, metric);
-                return metric;
+            if (isOverLimit(name)) {
+                return root().overflow(name, metric);
+            }
+            return addAndNotify(name, metric);
+        }
+        return (T) existingMetric;
+    }
+
+    /**
+     * Returns the registry of which this one is a child, if any.
+     *
+     * @return the parent registry, or {@code null}
+     */
+    MetricsRegistry parent() {
+        return null;
+    }
+
+    private MetricsRegistry root() {
+        MetricsRegistry root = this;
+        while (root.parent() != null) {
+            root = root.parent();
+        }
+        return root;
+    }
+
+    // the metric with the given name in this registry's tree, so that a child's metric never
+    // shadows one of its parent's or its siblings' in allMetrics(); a registry without a parent
+    // or children only looks in its own map
+    private Metric find(MetricName name) {
+        final Metric metric = metrics.get(name);
+        if (metric != null || (children.isEmpty() && parent() == null)) {
+            return metric;
+        }
+        return root().findInSubtree(name);
+    }
+
+    private Metric findInSubtree(MetricName name) {
+        final Metric metric = metrics.get(name);
+        if (metric != null) {
+            return metric;
+        }
+        for (MetricsRegistry child : children) {
+            final Metric found = child.findInSubtree(name);
+            if (found != null) {
+                return found;
             }
+        }
+        return null;
+    }
 
-            if (metric instanceof Stoppable) {
-                ((Stoppable) metric).stop();
+    // a child's metrics count towards the limits of all its ancestors
+    private boolean isOverLimit(MetricName name) {
+        for (MetricsRegistry registry = this; registry != null; registry = registry.parent()) {
+            if (registry.isFull(name)) {
+                return true;
             }
+        }
+        return false;
+    }
 
-            return (T) justAddedMetric;
+    private boolean isFull(MetricName name) {
+        if (maxMetrics != Integer.MAX_VALUE && size() >= maxMetrics) {
+            return true;
         }
-        return (T) existingMetric;
+        if (maxMetricsPerGroup == Integer.MAX_VALUE && groupLimits.isEmpty()) {
+            return false;
+        }
+        final String key = groupKey(name);
+        final Integer groupLimit = groupLimits.get(key);
+        return groupSize(key) >= (groupLimit == null ? maxMetricsPerGroup : groupLimit);
+    }
+
+    // the number of metrics in this registry and its children
+    private int size() {
+        int size = metrics.size();
+        for (MetricsRegistry child : children) {
+            size += child.size();
+        }
+        return size;
+    }
+
+    private int groupSize(String key) {
+        final Integer own = groupSizes.get(key);
+        int size = own == null ? 0 : own;
+        for (MetricsRegistry child : children) {
+            size += child.groupSize(key);
+        }
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends Metric> T overflow(MetricName name, String kind, Function<MetricName, T> metricCreator) {
+        // only the first rejection of each kind creates a metric
+        final Metric existing = overflowMetrics.get(kind);
+        if (existing != null) {
+            rejectedMetrics().inc();
+            return (T) existing;
+        }
+        return overflow(name, kind, metricCreator.apply(name));
+    }
+
+    private <T extends Metric> T overflow(MetricName name, T metric) {
+        return overflow(name, metric instanceof Gauge ? null : overflowKind(metric), metric);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends Metric> T overflow(MetricName name, String kind, T metric) {
+        rejectedMetrics().inc();
+        if (metric instanceof Gauge) {
+            return metric;
+        }
+        final Metric existing = overflowMetrics.get(kind);
+        if (existing != null) {
+            stop(metric);
+            return (T) existing;
+        }
+        final MetricName overflowName = new MetricName(MetricsRegistry.class, "overflow", kind);
+        final T overflow = addUnlimited(overflowName, metric);
+        final Metric raced = overflowMetrics.putIfAbsent(kind, overflow);
+        return raced == null ? overflow : (T) raced;
+    }
+
+    // the kind of a metric, with the settings which make metrics of that kind incompatible
+    private static String overflowKind(Class<? extends Metric> type, Object... settings) {
+        final StringBuilder kind = new StringBuilder(type.getSimpleName());
+        for (Object setting : settings) {
+            kind.append('-').append(setting.toString().toLowerCase(Locale.US));
+        }
+        return kind.toString();
+    }
+
+    private static String overflowKind(Metric metric) {
+        if (metric instanceof Timer) {
+            final Timer timer = (Timer) metric;
+            return timer.inFlight() == null ?
+                    overflowKind(timer.getClass(), timer.durationUnit(), timer.rateUnit()) :
+                    overflowKind(timer.getClass(), timer.durationUnit(), timer.rateUnit(), "in-flight");
+        }
+        if (metric instanceof Meter) {
+            final Meter meter = (Meter) metric;
+            return overflowKind(meter.getClass(), meter.eventType(), meter.rateUnit());
+        }
+        if (metric instanceof Histogram) {
+            return overflowKind(metric.getClass(), sampleKind(((Histogram) metric).sample()));
+        }
+        return overflowKind(metric.getClass());
+    }
+
+    private static String sampleKind(Sample sample) {
+        if (sample instanceof UniformTimeWindowedSample) {
+            return "biased";
+        }
+        if (sample instanceof UniformSample) {
+            return "uniform";
+        }
+        return sample.getClass().getSimpleName();
+    }
+
+    private Counter rejectedMetrics() {
+        final Metric counter = metrics.get(REJECTED_METRICS);
+        if (counter != null) {
+            return (Counter) counter;
+        }
+        return addUnlimited(REJECTED_METRICS, new Counter());
+    }
+
+    private <T extends Metric> T addUnlimited(MetricName name, T metric) {
+        return addAndNotify(name, metric);
+    }
+
+    // queues the addition while the name is locked, so that it's ordered after the removal of
+    // any metric which had the name before
+    @SuppressWarnings("unchecked")
+    private <T extends Metric> T addAndNotify(MetricName name, T metric) {
+        final Metric added = metrics.computeIfAbsent(name, (ignored) -> {
+            index(name, metric);
+            notifyMetricAdded(name, metric);
+            return metric;
+        });
+        if (added != metric) {
+            stop(metric);
+        }
+        return (T) added;
+    }
+
+    // removes the metric registered under the name, or only the given one if it's not null, and
+    // queues the removal while the name is locked, so that it's ordered before the addition of a
+    // metric which replaces it
+    private Metric removeAndNotify(MetricName name, Metric expected) {
+        final Metric[] removed = new Metric[1];
+        metrics.computeIfPresent(name, (ignored, current) -> {
+            if (expected != null && current != expected) {
+                return current;
+            }
+            notifyMetricRemoved(name, current);
+            removed[0] = current;
+            return null;
+        });
+        return removed[0];
+    }
+
+    private static void stop(Metric metric) {
+        if (metric instanceof Stoppable) {
+            ((Stoppable) metric).stop();
+        }
+    }
+
+    private SortedMap<String, SortedMap<MetricName, Metric>> query(MetricQuery query) {
+        final SortedMap<String, SortedMap<MetricName, Metric>> prefixed = withPrefix(query.getPrefix());
+        if (query.getTags().isEmpty()) {
+            return Collections.unmodifiableSortedMap(prefixed);
+        }
+
+        // walk the smallest posting set and check the rest against it
+        Set<MetricName> smallest = null;
+        final List<Set<MetricName>> postings = new ArrayList<Set<MetricName>>();
+        for (Map.Entry<String, String> tag : query.getTags().entrySet()) {
+            final Set<MetricName> posting = tagIndex.get(new AbstractMap.SimpleImmutableEntry<String, String>(tag));
+            if (posting == null) {
+                return Collections.unmodifiableSortedMap(new TreeMap<String, SortedMap<MetricName, Metric>>());
+            }
+            postings.add(posting);
+            if (smallest == null || posting.size() < smallest.size()) {
+                smallest = posting;
+            }
+        }
+
+        final SortedMap<String, SortedMap<MetricName, Metric>> matching =
+                new TreeMap<String, SortedMap<MetricName, Metric>>();
+        for (MetricName name : smallest) {
+            if (!containedInAll(name, postings)) {
+                continue;
+            }
+            final String key = groupKey(name);
+            final Metric metric = metrics.get(name);
+            if (metric != null && prefixed.containsKey(key)) {
+                SortedMap<MetricName, Metric> group = matching.get(key);
+                if (group == null) {
+                    group = new TreeMap<MetricName, Metric>();
+                    matching.put(key, group);
+                }
+                group.put(name, metric);
+            }
+        }
+        return Collections.unmodifiableSortedMap(matching);
+    }
+
+    private static boolean containedInAll(MetricName name, List<Set<MetricName>> postings) {
+        for (Set<MetricName> posting : postings) {
+            if (!posting.contains(name)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private SortedMap<String, SortedMap<MetricName, Metric>> withPrefix(String prefix) {
+        if (prefix.isEmpty()) {
+            return groupViews;
+        }
+        return groupViews.subMap(prefix, prefixEnd(prefix));
+    }
+
+    // the first string after all the strings which start with prefix
+    private static String prefixEnd(String prefix) {
+        int end = prefix.length();
+        while (end > 0 && prefix.charAt(end - 1) == Character.MAX_VALUE) {
+            end--;
+        }
+        if (end == 0) {
+            return prefix + Character.MAX_VALUE;
+        }
+        return prefix.substring(0, end - 1) + (char) (prefix.charAt(end - 1) + 1);
+    }
+
+    static String groupKey(MetricName name) {
+        final String qualifiedTypeName = name.getGroup() + "." + name.getType();
+        if (name.hasScope()) {
+            return qualifiedTypeName + "." + name.getScope();
+        }
+        return qualifiedTypeName;
+    }
+
+    private void index(MetricName name, Metric metric) {
+        final String key = groupKey(name);
+        synchronized (groupsLock) {
+            ConcurrentSkipListMap<MetricName, Metric> group = groups.get(key);
+            if (group == null) {
+                group = new ConcurrentSkipListMap<MetricName, Metric>();
+                groups.put(key, group);
+                groupViews.put(key, Collections.unmodifiableSortedMap(group));
+            }
+            if (group.put(name, metric) == null) {
+                final Integer size = groupSizes.get(key);
+                groupSizes.put(key, size == null ? 1 : size + 1);
+            }
+            for (Map.Entry<String, String> tag : name.getTags().entrySet()) {
+                final Map.Entry<String, String> tagKey = new AbstractMap.SimpleImmutableEntry<String, String>(tag);
+                Set<MetricName> posting = tagIndex.get(tagKey);
+                if (posting == null) {
+                    posting = ConcurrentHashMap.newKeySet();
+                    tagIndex.put(tagKey, posting);
+                }
+                posting.add(name);
+            }
+        }
+    }
+
+    // only unindexes the given metric: a new metric may have been added under the same name
+    // between its removal from the metrics map and this call, and that one stays indexed
+    private void unindex(MetricName name, Metric metric) {
+        final String key = groupKey(name);
+        synchronized (groupsLock) {
+            final ConcurrentSkipListMap<MetricName, Metric> group = groups.get(key);
+            if (group == null || !group.remove(name, metric)) {
+                return;
+            }
+            if (group.isEmpty()) {
+                groups.remove(key);
+                groupViews.remove(key);
+                groupSizes.remove(key);
+            } else {
+                groupSizes.put(key, groupSizes.get(key) - 1);
+            }
+            for (Map.Entry<String, String> tag : name.getTags().entrySet()) {
+                final Set<MetricName> posting = tagIndex.get(tag);
+                if (posting != null) {
+                    posting.remove(name);
+                    if (posting.isEmpty()) {
+                        tagIndex.remove(tag);
+                    }
+                }
+            }
+        }
+    }
+
+    // a handle only caches its metric while the registry knows about it, so that it's invalidated
+    // when the metric is removed; returns the handle which is tracked under the name, which is
+    // the given one unless another handle was tracked first
+    MetricHandle<?> track(MetricHandle<?> handle) {
+        final MetricHandle<?> tracked = handles.putIfAbsent(handle.name(), handle);
+        return tracked == null ? handle : tracked;
+    }
+
+    void untrack(MetricHandle<?> handle) {
+        handles.remove(handle.name(), handle);
+    }
+
+    boolean isRegistered(MetricName name, Metric metric) {
+        return metrics.get(name) == metric;
+    }
+
+    // lets removeIdleMetrics remove the metric once it's idle
+    void expireWhenIdle(MetricName name, Metric metric) {
+        final Expiring existing = expiring.get(name);
+        if (existing != null && existing.metric == metric) {
+            return;
+        }
+        final Expiring candidate = new Expiring(metric, clock.tick());
+        final boolean added = existing == null ?
+                expiring.putIfAbsent(name, candidate) == null :
+                expiring.replace(name, existing, candidate);
+        if (added && metrics.get(name) != metric) {
+            // removed meanwhile, so don't keep an entry for it
+            expiring.remove(name, candidate);
+        }
+    }
+
+    private void removed(MetricName name, Metric metric) {
+        unindex(name, metric);
+        expiring.computeIfPresent(name, (ignored, candidate) -> candidate.metric == metric ? null : candidate);
+        final MetricHandle<?> handle = handles.remove(name);
+        if (handle != null) {
+            handle.invalidate();
+        }
+        overflowMetrics.values().removeIf(overflow -> overflow == metric);
+        stop(metric);
+        final Set<MetricName> dependents = siblings.remove(name);
+        if (dependents != null) {
+            for (MetricName dependent : dependents) {
+                removeMetric(dependent);
+            }
+        }
+    }
+
+    // gauges have no updates to track, so they're only removed along with their owner
+    private static boolean untouch(Metric metric) {
+        if (metric instanceof Timer) {
+            return ((Timer) metric).untouch();
+        }
+        if (metric instanceof Meter) {
+            return ((Meter) metric).untouch();
+        }
+        if (metric instanceof Histogram) {
+            return ((Histogram) metric).untouch();
+        }
+        if (metric instanceof Counter) {
+            return ((Counter) metric).untouch();
+        }
+        return true;
+    }
+
+    private void newSiblingGauge(MetricName owner, String suffix, Gauge<?> gauge) {
+        final MetricName name = siblingName(owner, suffix);
+        if (newGauge(name, gauge) == gauge && metrics.get(name) == gauge) {
+            Set<MetricName> dependents = siblings.get(owner);
+            if (dependents == null) {
+                final Set<MetricName> created = ConcurrentHashMap.newKeySet();
+                dependents = siblings.putIfAbsent(owner, created);
+                if (dependents == null) {
+                    dependents = created;
+                }
+            }
+            dependents.add(name);
+        }
+    }
+
+    private static MetricName siblingName(MetricName metricName, String suffix) {
+        return new MetricName(metricName.getGroup(),
+                              metricName.getType(),
+                              metricName.getName() + suffix,
+                              metricName.getScope(),
+                              metricName.getTags());
     }
 
     private ScheduledExecutorService newMeterTickThreadPool() {
         return threadPools.newScheduledThreadPool(2, "meter-tick");
     }
 
-    private ScheduledExecutorService newGaugePollThreadPool() {
-        return threadPools.newScheduledThreadPool(1, "gauge-poll");
+    // the poller is recreated if its thread has been shut down, e.g. by shutdown(), since the
+    // registry creates new pools on demand afterwards
+    private GaugePoller gaugePoller() {
+        final GaugePoller existing = gaugePoller;
+        if (existing != null && !existing.isShutdown()) {
+            return existing;
+        }
+        synchronized (gaugePollerLock) {
+            if (gaugePoller == null || gaugePoller.isShutdown()) {
+                final int parallelism = gaugePollParallelism;
+                gaugePoller = new GaugePoller(threadPools.newScheduledThreadPool(1, "gauge-poll"),
+                                              threadPools.newScheduledThreadPool(Math.max(1, parallelism - 1), "gauge-poll-workers"),
+                                              parallelism,
+                                              clock,
+                                              newTimer(GaugePoller.class, "drift"),
+                                              newTimer(GaugePoller.class, "duration"),
+                                              newCounter(GaugePoller.class, "failures"));
+            }
+            return gaugePoller;
+        }
     }
 
-    private void notifyMetricRemoved(MetricName name) {
-        for (MetricsRegistryListener listener : listeners) {
-            listener.onMetricRemoved(name);
-        }
+    private void notifyMetricRemoved(MetricName name, Metric metric) {
+        events.add(new ListenerEvent(name, metric, true));
     }
 
     private void notifyMetricAdded(MetricName name, Metric metric) {
-        for (MetricsRegistryListener listener : listeners) {
-            listener.onMetricAdded(name, metric);
+        events.add(new ListenerEvent(name, metric, false));
+    }
+
+    private void dispatchEvents() {
+        if (events.isEmpty()) {
+            return;
+        }
+        final Executor executor = listenerExecutor;
+        if (executor == null) {
+            drainEvents();
+        } else if (dispatchScheduled.compareAndSet(false, true)) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    dispatchScheduled.set(false);
+                    drainEvents();
+                }
+            });
+        }
+    }
+
+    private void drainEvents() {
+        if (dispatchLock.isHeldByCurrentThread()) {
+            // a listener is adding or removing metrics, and the outer drain delivers them next
+            return;
+        }
+        // whoever holds the lock delivers everyone's events, so nobody waits for the listeners;
+        // checking again after unlocking picks up events queued just before the lock was released
+        while (!events.isEmpty() && dispatchLock.tryLock()) {
+            try {
+                deliver(coalesce(), null, null);
+            } finally {
+                dispatchLock.unlock();
+            }
+        }
+    }
+
+    // drops each addition which is followed by the same metric's removal, along with the removal
+    private List<ListenerEvent> coalesce() {
+        final List<ListenerEvent> batch = new ArrayList<ListenerEvent>();
+        final Map<MetricName, Integer> pendingAdds = new HashMap<MetricName, Integer>();
+        ListenerEvent event;
+        while ((event = events.poll()) != null) {
+            if (event.removed) {
+                final Integer added = pendingAdds.get(event.name);
+                if (added != null && batch.get(added).metric == event.metric) {
+                    pendingAdds.remove(event.name);
+                    batch.set(added, null);
+                    continue;
+                }
+            } else {
+                pendingAdds.put(event.name, batch.size());
+            }
+            batch.add(event);
+        }
+        return batch;
+    }
+
+    // replaying is a listener which has just been told about the replayed metrics, so it only
+    // gets the events which the replay doesn't already reflect
+    private void deliver(List<ListenerEvent> batch,
+                         MetricsRegistryListener replaying,
+                         Map<MetricName, Metric> replayed) {
+        RuntimeException failure = null;
+        for (ListenerEvent event : batch) {
+            if (event == null) {
+                continue;
+            }
+            for (MetricsRegistryListener listener : listeners) {
+                if (listener == replaying && event.removed != (replayed.get(event.name) == event.metric)) {
+                    continue;
+                }
+                try {
+                    if (!event.removed) {
+                        listener.onMetricAdded(event.name, event.metric);
+                    } else if (listener instanceof ChildListener) {
+                        ((ChildListener) listener).onMetricRemoved(event.name, event.metric);
+                    } else {
+                        listener.onMetricRemoved(event.name);
+                    }
+                } catch (RuntimeException e) {
+                    // keep going, so that one bad listener doesn't cost the others their events
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static class SnapshotBuilder implements MetricProcessor<Void> {
+        private final RegistrySnapshot.Counters counters = new RegistrySnapshot.Counters();
+        private final RegistrySnapshot.Gauges gauges = new RegistrySnapshot.Gauges();
+        private final RegistrySnapshot.Rates meters = new RegistrySnapshot.Rates();
+        private final RegistrySnapshot.Summaries histograms = new RegistrySnapshot.Summaries();
+        private final RegistrySnapshot.Rates timerRates = new RegistrySnapshot.Rates();
+        private final RegistrySnapshot.Summaries timerDurations = new RegistrySnapshot.Summaries();
+        private int nameIndex;
+
+        @Override
+        public void processMeter(MetricName name, Metered meter, Void context) {
+            meters.add(nameIndex, meter, meter.count());
+        }
+
+        @Override
+        public void processCounter(MetricName name, Counter counter, Void context) {
+            counters.add(nameIndex, counter);
+        }
+
+        @Override
+        public void processHistogram(MetricName name, Histogram histogram, Void context) {
+            histograms.add(nameIndex, histogram, histogram, histogram.count(), null);
+        }
+
+        @Override
+        public void processTimer(MetricName name, Timer timer, Void context) {
+            // read the count once, so that both rows agree on it
+            final long count = timer.count();
+            timerRates.add(nameIndex, timer, count);
+            timerDurations.add(nameIndex, timer, timer, count, timer.durationUnit());
+        }
+
+        @Override
+        public void processGauge(MetricName name, Gauge<?> gauge, Void context) {
+            gauges.add(nameIndex, gauge.value());
+        }
+    }
+
+    private static class ListenerEvent {
+        private final MetricName name;
+        private final Metric metric;
+        private final boolean removed;
+
+        private ListenerEvent(MetricName name, Metric metric, boolean removed) {
+            this.name = name;
+            this.metric = metric;
+            this.removed = removed;
+        }
+    }
+
+    /**
+     * Passes a child's events on to this registry's listeners. Unlike other listeners, it's told
+     * which metric each removal is for, so that removals are paired with additions correctly.
+     */
+    private class ChildListener implements MetricsRegistryListener {
+        @Override
+        public void onMetricAdded(MetricName name, Metric metric) {
+            notifyMetricAdded(name, metric);
+            dispatchEvents();
+        }
+
+        @Override
+        public void onMetricRemoved(MetricName name) {
+            onMetricRemoved(name, null);
+        }
+
+        void onMetricRemoved(MetricName name, Metric metric) {
+            notifyMetricRemoved(name, metric);
+            dispatchEvents();
+        }
+    }
+
+    private static class Expiring {
+        private final Metric metric;
+        // only read and written by removeIdleMetrics, under expiryLock
+        private long touched;
+
+        private Expiring(Metric metric, long touched) {
+            this.metric = metric;
+            this.touched = touched;
         }
     }
 }
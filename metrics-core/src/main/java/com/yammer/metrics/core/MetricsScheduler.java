@@ -0,0 +1,71 @@
+package com.yammer.metrics.core;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Provides the named thread pools which a {@link MetricsRegistry} and its reporters use to tick
+ * meters, poll gauges and report. Pass one to
+ * {@link MetricsRegistry#MetricsRegistry(Clock, MetricsScheduler)} to control how many threads
+ * the library uses.
+ */
+public interface MetricsScheduler {
+    /**
+     * Returns a scheduler which gives each name its own thread pool of the requested size. This
+     * is the default.
+     *
+     * @return a scheduler with a thread pool per name
+     */
+    static MetricsScheduler perName() {
+        return new ThreadPools();
+    }
+
+    /**
+     * Returns a scheduler on which every name shares a single timer thread and a fixed pool of
+     * worker threads, so the number of threads doesn't grow with the number of reporters and
+     * polling gauges.
+     * <p/>
+     * The pools' sizes are ignored, so a task which blocks until a task of another pool has run
+     * holds a worker which that task may need: with too few workers, neither runs, and meter
+     * ticks queue up behind them. Tasks on a shared scheduler shouldn't block on each other; a
+     * {@code GaugeSampler} gives up on gauges which don't start within its timeout.
+     *
+     * @param workerThreads the number of threads which run the scheduled tasks
+     * @return a scheduler with shared threads
+     */
+    static MetricsScheduler shared(int workerThreads) {
+        return new SharedScheduler(() -> Executors.newFixedThreadPool(workerThreads,
+                                                                      new ThreadPools.NamedThreadFactory("worker")));
+    }
+
+    /**
+     * Returns a scheduler on which every name shares a single timer thread, which hands the
+     * scheduled tasks to the given executor to run, e.g.
+     * {@code Executors.newVirtualThreadPerTaskExecutor()} on JDKs which have virtual threads.
+     * The executor isn't shut down along with the scheduler. As with {@link #shared(int)}, the
+     * pools' sizes are ignored.
+     *
+     * @param workers the executor which runs the scheduled tasks
+     * @return a scheduler with a shared timer thread
+     */
+    static MetricsScheduler shared(Executor workers) {
+        return new SharedScheduler(workers);
+    }
+
+    /**
+     * Returns the thread pool with the given name, creating it if it doesn't exist or has been
+     * shut down. Shutting down the returned pool only affects the tasks submitted to it.
+     *
+     * @param poolSize the number of threads the pool should have, if it has its own threads
+     * @param name     the name of the pool
+     * @return a {@link ScheduledExecutorService}
+     */
+    ScheduledExecutorService newScheduledThreadPool(int poolSize, String name);
+
+    /**
+     * Shuts down all the thread pools provided by this scheduler. Pools requested afterwards get
+     * new threads.
+     */
+    void shutdown();
+}
@@ -1,40 +1,27 @@
 package com.yammer.metrics.core;
 
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
-
 /**
  * Gauge subclass that rather than reporting a single value at each report period, it reads the value at a
  * configurable poll interval and updates a histogram to give a better sense of the distribution of values over time
+ *
+ * @see GaugePoller
  */
 class PollingGauge<T extends Number> extends Gauge<T> implements Stoppable {
   private final Gauge<T> delegate;
-  private final ScheduledFuture<?> future;
+  private final Histogram histogram;
+  private final GaugePoller.Group group;
 
-  private PollingGauge(final Gauge<T> delegate, final Histogram histogram, ScheduledExecutorService pollThread, long pollInterval, TimeUnit pollIntervalUnit) {
+  PollingGauge(Gauge<T> delegate, Histogram histogram, GaugePoller.Group group) {
     this.delegate = delegate;
-    this.future = pollThread.scheduleAtFixedRate(new Runnable() {
-      @Override
-      public void run() {
-        final long value;
-        try {
-          value = delegate.value().longValue();
-        } catch (Throwable ignored) {
-          return;
-        }
-
-        histogram.update(value);
-      }
-    }, pollInterval, pollInterval, pollIntervalUnit);
+    this.histogram = histogram;
+    this.group = group;
   }
 
-  static <T extends Number> Stoppable poll(Gauge<T> delegate,
-                                           Histogram histogram,
-                                           ScheduledExecutorService pollThread,
-                                           long pollInterval,
-                                           TimeUnit pollIntervalUnit) {
-    return new PollingGauge<T>(delegate, histogram, pollThread, pollInterval, pollIntervalUnit);
+  /**
+   * Reads the gauge and records its value.
+   */
+  void poll() {
+    histogram.update(delegate.value().longValue());
   }
 
   @Override
@@ -44,6 +31,6 @@ class PollingGauge<T extends Number> extends Gauge<T> implements Stoppable {
 
   @Override
   public void stop() {
-    future.cancel(false);
+    group.remove(this);
   }
 }
@@ -0,0 +1,545 @@
+package com.yammer.metrics.core;
+
+import com.yammer.metrics.stats.Snapshot;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An immutable capture of a registry's metrics, read in a single pass. Each kind of metric is
+ * stored column by column in primitive arrays, with the metrics' names in a table shared by all
+ * kinds, so a reporter can serialise a consistent set of values without going back to the live
+ * metrics.
+ * <p/>
+ * A timer is captured as a row of {@link #timerRates()} and the row with the same index in
+ * {@link #timerDurations()}, whose counts are the same.
+ *
+ * @see MetricsRegistry#snapshot()
+ */
+public class RegistrySnapshot {
+    private final long timestamp;
+    private final MetricName[] names;
+    private final Counters counters;
+    private final Gauges gauges;
+    private final Rates meters;
+    private final Summaries histograms;
+    private final Rates timerRates;
+    private final Summaries timerDurations;
+
+    RegistrySnapshot(long timestamp,
+                     MetricName[] names,
+                     Counters counters,
+                     Gauges gauges,
+                     Rates meters,
+                     Summaries histograms,
+                     Rates timerRates,
+                     Summaries timerDurations) {
+        this.timestamp = timestamp;
+        this.names = names;
+        this.counters = counters;
+        this.gauges = gauges;
+        this.meters = meters;
+        this.histograms = histograms;
+        this.timerRates = timerRates;
+        this.timerDurations = timerDurations;
+    }
+
+    /**
+     * Returns the time at which the snapshot was taken.
+     *
+     * @return the time at which the snapshot was taken, in milliseconds since the epoch
+     */
+    public long timestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Returns the number of metrics in the snapshot.
+     *
+     * @return the number of metrics in the snapshot
+     */
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * Returns the name with the given index in the name table. The names are sorted.
+     *
+     * @param index the index of the name
+     * @return the name with the given index
+     */
+    public MetricName name(int index) {
+        return names[index];
+    }
+
+    /**
+     * Returns the counters.
+     *
+     * @return the counters
+     */
+    public Counters counters() {
+        return counters;
+    }
+
+    /**
+     * Returns the gauges.
+     *
+     * @return the gauges
+     */
+    public Gauges gauges() {
+        return gauges;
+    }
+
+    /**
+     * Returns the meters.
+     *
+     * @return the meters
+     */
+    public Rates meters() {
+        return meters;
+    }
+
+    /**
+     * Returns the summaries of the histograms.
+     *
+     * @return the summaries of the histograms
+     */
+    public Summaries histograms() {
+        return histograms;
+    }
+
+    /**
+     * Returns the rates of the timers.
+     *
+     * @return the rates of the timers
+     */
+    public Rates timerRates() {
+        return timerRates;
+    }
+
+    /**
+     * Returns the summaries of the timers' durations, in each timer's duration unit.
+     *
+     * @return the summaries of the timers' durations
+     */
+    public Summaries timerDurations() {
+        return timerDurations;
+    }
+
+    /**
+     * The rows of one kind of metric. Each row refers to its metric's name by its index in the
+     * snapshot's name table.
+     */
+    public abstract static class Section {
+        private MetricName[] names;
+        private int size;
+        private int[] nameIndexes = new int[16];
+
+        Section() { /* only the sections below are supported */ }
+
+        /**
+         * Returns the number of rows.
+         *
+         * @return the number of rows
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Returns the index in the snapshot's name table of the given row's name.
+         *
+         * @param row the row
+         * @return the index of the row's name
+         */
+        public int nameIndex(int row) {
+            return nameIndexes[row];
+        }
+
+        /**
+         * Returns the name of the given row's metric.
+         *
+         * @param row the row
+         * @return the name of the row's metric
+         */
+        public MetricName name(int row) {
+            return names[nameIndexes[row]];
+        }
+
+        int addRow(int nameIndex) {
+            if (size == nameIndexes.length) {
+                grow(size * 2);
+            }
+            nameIndexes[size] = nameIndex;
+            return size++;
+        }
+
+        void grow(int capacity) {
+            nameIndexes = Arrays.copyOf(nameIndexes, capacity);
+        }
+
+        void freeze(MetricName[] names) {
+            this.names = names;
+            grow(size);
+        }
+    }
+
+    /**
+     * The counters of a snapshot.
+     */
+    public static class Counters extends Section {
+        private long[] counts = new long[16];
+
+        Counters() {
+        }
+
+        /**
+         * Returns the given row's count.
+         *
+         * @param row the row
+         * @return the count
+         */
+        public long count(int row) {
+            return counts[row];
+        }
+
+        void add(int nameIndex, Counter counter) {
+            final int row = addRow(nameIndex);
+            counts[row] = counter.count();
+        }
+
+        @Override
+        void grow(int capacity) {
+            super.grow(capacity);
+            counts = Arrays.copyOf(counts, capacity);
+        }
+    }
+
+    /**
+     * The gauges of a snapshot. Gauges which threw when read are left out.
+     */
+    public static class Gauges extends Section {
+        private Object[] values = new Object[16];
+
+        Gauges() {
+        }
+
+        /**
+         * Returns the given row's value.
+         *
+         * @param row the row
+         * @return the value
+         */
+        public Object value(int row) {
+            return values[row];
+        }
+
+        void add(int nameIndex, Object value) {
+            final int row = addRow(nameIndex);
+            values[row] = value;
+        }
+
+        @Override
+        void grow(int capacity) {
+            super.grow(capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+    }
+
+    /**
+     * The counts and rates of the meters or timers of a snapshot.
+     */
+    public static class Rates extends Section {
+        private long[] counts = new long[16];
+        private double[] meanRates = new double[16];
+        private double[] oneMinuteRates = new double[16];
+        private double[] fiveMinuteRates = new double[16];
+        private double[] fifteenMinuteRates = new double[16];
+        private TimeUnit[] rateUnits = new TimeUnit[16];
+        private String[] eventTypes = new String[16];
+
+        Rates() {
+        }
+
+        /**
+         * Returns the given row's count.
+         *
+         * @param row the row
+         * @return the count
+         */
+        public long count(int row) {
+            return counts[row];
+        }
+
+        /**
+         * Returns the given row's mean rate.
+         *
+         * @param row the row
+         * @return the mean rate, per {@link #rateUnit(int)}
+         */
+        public double meanRate(int row) {
+            return meanRates[row];
+        }
+
+        /**
+         * Returns the given row's one-minute rate.
+         *
+         * @param row the row
+         * @return the one-minute rate, per {@link #rateUnit(int)}
+         */
+        public double oneMinuteRate(int row) {
+            return oneMinuteRates[row];
+        }
+
+        /**
+         * Returns the given row's five-minute rate.
+         *
+         * @param row the row
+         * @return the five-minute rate, per {@link #rateUnit(int)}
+         */
+        public double fiveMinuteRate(int row) {
+            return fiveMinuteRates[row];
+        }
+
+        /**
+         * Returns the given row's fifteen-minute rate.
+         *
+         * @param row the row
+         * @return the fifteen-minute rate, per {@link #rateUnit(int)}
+         */
+        public double fifteenMinuteRate(int row) {
+            return fifteenMinuteRates[row];
+        }
+
+        /**
+         * Returns the given row's rate unit.
+         *
+         * @param row the row
+         * @return the rate unit
+         */
+        public TimeUnit rateUnit(int row) {
+            return rateUnits[row];
+        }
+
+        /**
+         * Returns the given row's event type.
+         *
+         * @param row the row
+         * @return the event type
+         */
+        public String eventType(int row) {
+            return eventTypes[row];
+        }
+
+        void add(int nameIndex, Metered metered, long count) {
+            final int row = addRow(nameIndex);
+            counts[row] = count;
+            meanRates[row] = metered.meanRate();
+            oneMinuteRates[row] = metered.oneMinuteRate();
+            fiveMinuteRates[row] = metered.fiveMinuteRate();
+            fifteenMinuteRates[row] = metered.fifteenMinuteRate();
+            rateUnits[row] = metered.rateUnit();
+            eventTypes[row] = metered.eventType();
+        }
+
+        @Override
+        void grow(int capacity) {
+            super.grow(capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            meanRates = Arrays.copyOf(meanRates, capacity);
+            oneMinuteRates = Arrays.copyOf(oneMinuteRates, capacity);
+            fiveMinuteRates = Arrays.copyOf(fiveMinuteRates, capacity);
+            fifteenMinuteRates = Arrays.copyOf(fifteenMinuteRates, capacity);
+            rateUnits = Arrays.copyOf(rateUnits, capacity);
+            eventTypes = Arrays.copyOf(eventTypes, capacity);
+        }
+    }
+
+    /**
+     * The summaries of the histograms or timers of a snapshot.
+     */
+    public static class Summaries extends Section {
+        private long[] counts = new long[16];
+        private double[] mins = new double[16];
+        private double[] maxes = new double[16];
+        private double[] means = new double[16];
+        private double[] stdDevs = new double[16];
+        private double[] sums = new double[16];
+        private double[] medians = new double[16];
+        private double[] p75s = new double[16];
+        private double[] p95s = new double[16];
+        private double[] p98s = new double[16];
+        private double[] p99s = new double[16];
+        private double[] p999s = new double[16];
+        private TimeUnit[] durationUnits = new TimeUnit[16];
+
+        Summaries() {
+        }
+
+        /**
+         * Returns the given row's count.
+         *
+         * @param row the row
+         * @return the count
+         */
+        public long count(int row) {
+            return counts[row];
+        }
+
+        /**
+         * Returns the given row's smallest value.
+         *
+         * @param row the row
+         * @return the smallest value
+         */
+        public double min(int row) {
+            return mins[row];
+        }
+
+        /**
+         * Returns the given row's largest value.
+         *
+         * @param row the row
+         * @return the largest value
+         */
+        public double max(int row) {
+            return maxes[row];
+        }
+
+        /**
+         * Returns the given row's mean value.
+         *
+         * @param row the row
+         * @return the mean value
+         */
+        public double mean(int row) {
+            return means[row];
+        }
+
+        /**
+         * Returns the given row's standard deviation.
+         *
+         * @param row the row
+         * @return the standard deviation
+         */
+        public double stdDev(int row) {
+            return stdDevs[row];
+        }
+
+        /**
+         * Returns the given row's sum.
+         *
+         * @param row the row
+         * @return the sum
+         */
+        public double sum(int row) {
+            return sums[row];
+        }
+
+        /**
+         * Returns the given row's median.
+         *
+         * @param row the row
+         * @return the median
+         */
+        public double median(int row) {
+            return medians[row];
+        }
+
+        /**
+         * Returns the given row's 75th percentile.
+         *
+         * @param row the row
+         * @return the 75th percentile
+         */
+        public double get75thPercentile(int row) {
+            return p75s[row];
+        }
+
+        /**
+         * Returns the given row's 95th percentile.
+         *
+         * @param row the row
+         * @return the 95th percentile
+         */
+        public double get95thPercentile(int row) {
+            return p95s[row];
+        }
+
+        /**
+         * Returns the given row's 98th percentile.
+         *
+         * @param row the row
+         * @return the 98th percentile
+         */
+        public double get98thPercentile(int row) {
+            return p98s[row];
+        }
+
+        /**
+         * Returns the given row's 99th percentile.
+         *
+         * @param row the row
+         * @return the 99th percentile
+         */
+        public double get99thPercentile(int row) {
+            return p99s[row];
+        }
+
+        /**
+         * Returns the given row's 99.9th percentile.
+         *
+         * @param row the row
+         * @return the 99.9th percentile
+         */
+        public double get999thPercentile(int row) {
+            return p999s[row];
+        }
+
+        /**
+         * Returns the unit of the given row's values, for timers.
+         *
+         * @param row the row
+         * @return the duration unit, or {@code null} for histograms
+         */
+        public TimeUnit durationUnit(int row) {
+            return durationUnits[row];
+        }
+
+        void add(int nameIndex, Summarizable summary, Sampling sampling, long count, TimeUnit durationUnit) {
+            final int row = addRow(nameIndex);
+            final Snapshot snapshot = sampling.getSnapshot();
+            counts[row] = count;
+            mins[row] = summary.min();
+            maxes[row] = summary.max();
+            means[row] = summary.mean();
+            stdDevs[row] = summary.stdDev();
+            sums[row] = summary.sum();
+            medians[row] = snapshot.getMedian();
+            p75s[row] = snapshot.get75thPercentile();
+            p95s[row] = snapshot.get95thPercentile();
+            p98s[row] = snapshot.get98thPercentile();
+            p99s[row] = snapshot.get99thPercentile();
+            p999s[row] = snapshot.get999thPercentile();
+            durationUnits[row] = durationUnit;
+        }
+
+        @Override
+        void grow(int capacity) {
+            super.grow(capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            mins = Arrays.copyOf(mins, capacity);
+            maxes = Arrays.copyOf(maxes, capacity);
+            means = Arrays.copyOf(means, capacity);
+            stdDevs = Arrays.copyOf(stdDevs, capacity);
+            sums = Arrays.copyOf(sums, capacity);
+            medians = Arrays.copyOf(medians, capacity);
+            p75s = Arrays.copyOf(p75s, capacity);
+            p95s = Arrays.copyOf(p95s, capacity);
+            p98s = Arrays.copyOf(p98s, capacity);
+            p99s = Arrays.copyOf(p99s, capacity);
+            p999s = Arrays.copyOf(p999s, capacity);
+            durationUnits = Arrays.copyOf(durationUnits, capacity);
+        }
+    }
+}
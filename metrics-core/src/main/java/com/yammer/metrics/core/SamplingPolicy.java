@@ -0,0 +1,82 @@
+package com.yammer.metrics.core;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides which calls a {@link Timer} actually times. Calls which aren't timed still mark the
+ * timer's rate {@link Meter} and are included in its count, but skip reading the clock and updating
+ * the duration histogram, so the duration statistics are estimated from the timed subset.
+ */
+public abstract class SamplingPolicy {
+    private static final SamplingPolicy ALWAYS = new SamplingPolicy() {
+        @Override
+        boolean shouldTime(Metered calls) {
+            return true;
+        }
+    };
+
+    /**
+     * Returns a policy which times every call.
+     *
+     * @return a policy which times every call
+     */
+    public static SamplingPolicy always() {
+        return ALWAYS;
+    }
+
+    /**
+     * Returns a policy which times one in every {@code n} calls, chosen at random.
+     *
+     * @param n the inverse of the fraction of calls to time
+     * @return a policy which times one in every {@code n} calls
+     */
+    public static SamplingPolicy oneIn(final int n) {
+        if (n < 1) {
+            throw new IllegalArgumentException("n must be at least 1");
+        }
+        if (n == 1) {
+            return ALWAYS;
+        }
+        return new SamplingPolicy() {
+            @Override
+            boolean shouldTime(Metered calls) {
+                return ThreadLocalRandom.current().nextInt(n) == 0;
+            }
+        };
+    }
+
+    /**
+     * Returns a policy which times every call while the timer's one-minute rate is below
+     * {@code maxPerSecond}, and above that times calls at random with a probability which keeps
+     * the number of timed calls at about {@code maxPerSecond}. The policy follows the one-minute
+     * rate, so it adjusts to a change in load over about a minute.
+     *
+     * @param maxPerSecond the number of calls per second to time
+     * @return a policy which bounds the number of timed calls per second
+     */
+    public static SamplingPolicy adaptive(final double maxPerSecond) {
+        if (maxPerSecond <= 0) {
+            throw new IllegalArgumentException("maxPerSecond must be positive");
+        }
+        return new SamplingPolicy() {
+            @Override
+            boolean shouldTime(Metered calls) {
+                final double perSecond = calls.oneMinuteRate() * TimeUnit.SECONDS.toNanos(1) /
+                        calls.rateUnit().toNanos(1);
+                return perSecond <= maxPerSecond ||
+                        ThreadLocalRandom.current().nextDouble() * perSecond < maxPerSecond;
+            }
+        };
+    }
+
+    SamplingPolicy() { /* only the policies above are supported */ }
+
+    /**
+     * Returns whether the next call should be timed.
+     *
+     * @param calls the rate of all calls to the timer
+     * @return {@code true} if the call should be timed
+     */
+    abstract boolean shouldTime(Metered calls);
+}
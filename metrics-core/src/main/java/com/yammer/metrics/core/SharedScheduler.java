@@ -0,0 +1,396 @@
+package com.yammer.metrics.core;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * A {@link MetricsScheduler} whose named pools are views of one timer thread and one set of
+ * workers. The timer thread only decides when tasks are due; the tasks themselves run on the
+ * workers, so a slow reporter can't delay a meter tick.
+ * <p/>
+ * The threads are started when the first pool is requested. Shutting the scheduler down stops
+ * them, and requesting a pool afterwards starts new ones, as {@link ThreadPools} creates new pools.
+ */
+class SharedScheduler implements MetricsScheduler {
+    private final Executor sharedWorkers;
+    private final Supplier<ExecutorService> newWorkers;
+    private final ConcurrentMap<String, View> views = new ConcurrentHashMap<String, View>();
+    private final Object threadsLock = new Object();
+    private volatile Threads threads;
+
+    /**
+     * Creates a new {@link SharedScheduler} whose tasks run on the given executor, which isn't
+     * shut down along with the scheduler.
+     *
+     * @param workers the executor which runs the scheduled tasks
+     */
+    SharedScheduler(Executor workers) {
+        this.sharedWorkers = workers;
+        this.newWorkers = null;
+    }
+
+    /**
+     * Creates a new {@link SharedScheduler} whose tasks run on workers it creates, and shuts
+     * down along with the scheduler.
+     *
+     * @param newWorkers creates the executor which runs the scheduled tasks
+     */
+    SharedScheduler(Supplier<ExecutorService> newWorkers) {
+        this.sharedWorkers = null;
+        this.newWorkers = newWorkers;
+    }
+
+    @Override
+    public ScheduledExecutorService newScheduledThreadPool(int poolSize, String name) {
+        final View existing = views.get(name);
+        if (existing != null && !existing.isShutdown()) {
+            return existing;
+        }
+        final View view = new View(threads());
+        if (existing == null ? views.putIfAbsent(name, view) == null : views.replace(name, existing, view)) {
+            return view;
+        }
+        return newScheduledThreadPool(poolSize, name);
+    }
+
+    private Threads threads() {
+        final Threads existing = threads;
+        if (existing != null) {
+            return existing;
+        }
+        synchronized (threadsLock) {
+            if (threads == null) {
+                threads = new Threads(newWorkers == null ? sharedWorkers : newWorkers.get(), newWorkers != null);
+            }
+            return threads;
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        final Threads stopped;
+        synchronized (threadsLock) {
+            stopped = threads;
+            threads = null;
+        }
+        for (View view : views.values()) {
+            view.shutdown();
+        }
+        views.clear();
+        if (stopped != null) {
+            stopped.shutdown();
+        }
+    }
+
+    /**
+     * One generation of the timer thread and workers, which lasts until the scheduler is shut
+     * down.
+     */
+    private static class Threads {
+        private final ScheduledThreadPoolExecutor timer;
+        private final Executor workers;
+        private final boolean ownsWorkers;
+
+        Threads(Executor workers, boolean ownsWorkers) {
+            this.timer = new ScheduledThreadPoolExecutor(1, new ThreadPools.NamedThreadFactory("timer"));
+            this.timer.setRemoveOnCancelPolicy(true);
+            this.workers = workers;
+            this.ownsWorkers = ownsWorkers;
+        }
+
+        void shutdown() {
+            timer.shutdown();
+            if (ownsWorkers) {
+                ((ExecutorService) workers).shutdown();
+            }
+        }
+    }
+
+    /**
+     * One named pool: the tasks submitted under a name, which can be shut down without affecting
+     * the other names.
+     */
+    private static class View extends AbstractExecutorService implements ScheduledExecutorService {
+        private final ScheduledThreadPoolExecutor timer;
+        private final Executor workers;
+        private final Set<Task<?>> tasks = ConcurrentHashMap.newKeySet();
+        private final Object lock = new Object();
+        private volatile boolean shutdown;
+        private int running;
+
+        View(Threads threads) {
+            this.timer = threads.timer;
+            this.workers = threads.workers;
+        }
+
+        @Override
+        public void execute(final Runnable command) {
+            if (shutdown) {
+                throw new RejectedExecutionException("metrics pool has been shut down");
+            }
+            beforeRun();
+            try {
+                workers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            command.run();
+                        } finally {
+                            afterRun();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                afterRun();
+                throw e;
+            }
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            return schedule(Executors.callable(command), delay, unit);
+        }
+
+        @Override
+        public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+            return start(new Task<V>(this, new FutureTask<V>(callable), null, 0), unit.toNanos(delay));
+        }
+
+        @Override
+        public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+            if (period <= 0) {
+                throw new IllegalArgumentException("period must be positive");
+            }
+            return start(new Task<Void>(this, null, command, unit.toNanos(period)), unit.toNanos(initialDelay));
+        }
+
+        @Override
+        public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+            if (delay <= 0) {
+                throw new IllegalArgumentException("delay must be positive");
+            }
+            return start(new Task<Void>(this, null, command, -unit.toNanos(delay)), unit.toNanos(initialDelay));
+        }
+
+        private <V> Task<V> start(Task<V> task, long delay) {
+            if (shutdown) {
+                throw new RejectedExecutionException("metrics pool has been shut down");
+            }
+            tasks.add(task);
+            if (task.period > 0) {
+                task.setTick(timer.scheduleAtFixedRate(task, delay, task.period, TimeUnit.NANOSECONDS));
+            } else {
+                task.setTick(timer.schedule(task, delay, TimeUnit.NANOSECONDS));
+            }
+            return task;
+        }
+
+        @Override
+        public void shutdown() {
+            shutdown = true;
+            for (Task<?> task : tasks) {
+                task.cancel(false);
+            }
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            shutdown();
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return shutdown;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            synchronized (lock) {
+                return shutdown && running == 0;
+            }
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            final long deadline = System.nanoTime() + unit.toNanos(timeout);
+            synchronized (lock) {
+                while (!(shutdown && running == 0)) {
+                    final long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+                }
+                return true;
+            }
+        }
+
+        private void beforeRun() {
+            synchronized (lock) {
+                running++;
+            }
+        }
+
+        private void afterRun() {
+            synchronized (lock) {
+                running--;
+                if (running == 0) {
+                    lock.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * A task scheduled on a {@link View}. Its period follows {@link ScheduledThreadPoolExecutor}:
+     * positive for a fixed rate, negative for a fixed delay and zero for a single run.
+     */
+    private static class Task<V> implements ScheduledFuture<V>, Runnable {
+        private final View view;
+        private final FutureTask<V> result;
+        private final Runnable command;
+        private final long period;
+        private final AtomicBoolean running = new AtomicBoolean();
+        private final CountDownLatch finished = new CountDownLatch(1);
+        private volatile ScheduledFuture<?> tick;
+        private volatile boolean cancelled;
+        private volatile Throwable failure;
+
+        Task(View view, FutureTask<V> result, Runnable command, long period) {
+            this.view = view;
+            this.result = result;
+            this.command = command;
+            this.period = period;
+        }
+
+        void setTick(ScheduledFuture<?> tick) {
+            this.tick = tick;
+            if (cancelled) {
+                tick.cancel(false);
+            }
+        }
+
+        // runs on the timer thread, and hands the task to the workers
+        @Override
+        public void run() {
+            if (cancelled || !running.compareAndSet(false, true)) {
+                // a fixed-rate task which is still running skips this run, as it would on a pool
+                return;
+            }
+            view.beforeRun();
+            try {
+                view.workers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        runTask();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                running.set(false);
+                view.afterRun();
+                fail(e);
+            }
+        }
+
+        private void runTask() {
+            try {
+                if (result != null) {
+                    result.run();
+                    finish();
+                } else {
+                    command.run();
+                    if (period < 0 && !cancelled) {
+                        setTick(view.timer.schedule(this, -period, TimeUnit.NANOSECONDS));
+                    }
+                }
+            } catch (Throwable e) {
+                // a periodic task which fails doesn't run again
+                fail(e);
+            } finally {
+                running.set(false);
+                view.afterRun();
+            }
+        }
+
+        private void fail(Throwable e) {
+            failure = e;
+            final ScheduledFuture<?> current = tick;
+            if (current != null) {
+                current.cancel(false);
+            }
+            finish();
+        }
+
+        private void finish() {
+            view.tasks.remove(this);
+            finished.countDown();
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (isDone()) {
+                return false;
+            }
+            cancelled = true;
+            final ScheduledFuture<?> current = tick;
+            if (current != null) {
+                current.cancel(false);
+            }
+            if (result != null) {
+                result.cancel(mayInterruptIfRunning);
+            }
+            finish();
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public boolean isDone() {
+            return finished.getCount() == 0;
+        }
+
+        @Override
+        public V get() throws InterruptedException, ExecutionException {
+            finished.await();
+            return report();
+        }
+
+        @Override
+        public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            if (!finished.await(timeout, unit)) {
+                throw new TimeoutException();
+            }
+            return report();
+        }
+
+        private V report() throws InterruptedException, ExecutionException {
+            if (cancelled) {
+                throw new CancellationException();
+            }
+            if (failure != null) {
+                throw new ExecutionException(failure);
+            }
+            return result == null ? null : result.get();
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            final ScheduledFuture<?> current = tick;
+            return current == null ? 0 : current.getDelay(unit);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+        }
+    }
+}
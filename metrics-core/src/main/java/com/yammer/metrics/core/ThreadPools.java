@@ -4,13 +4,13 @@ import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * A manager class for a set of named thread pools.
+ * A manager class for a set of named thread pools, which gives each name its own pool.
  */
-class ThreadPools {
+class ThreadPools implements MetricsScheduler {
     /**
      * A simple named thread factory.
      */
-    private static class NamedThreadFactory implements ThreadFactory {
+    static class NamedThreadFactory implements ThreadFactory {
         private final ThreadGroup group;
         private final AtomicInteger threadNumber = new AtomicInteger(1);
         private final String namePrefix;
@@ -50,7 +50,8 @@ class ThreadPools {
      * @param name     the name of the pool
      * @return a new {@link ScheduledExecutorService}
      */
-    ScheduledExecutorService newScheduledThreadPool(int poolSize, String name) {
+    @Override
+    public ScheduledExecutorService newScheduledThreadPool(int poolSize, String name) {
         final ScheduledExecutorService existing = threadPools.get(name);
         if (isValidExecutor(existing)) {
             return existing;
@@ -80,7 +81,8 @@ class ThreadPools {
     /**
      * Shuts down all thread pools created by this class in an orderly fashion.
      */
-    void shutdown() {
+    @Override
+    public void shutdown() {
         synchronized (this) {
             for (ExecutorService executor : threadPools.values()) {
                 executor.shutdown();
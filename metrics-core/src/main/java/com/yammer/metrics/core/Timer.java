@@ -4,19 +4,50 @@ import com.yammer.metrics.core.Histogram.SampleType;
 import com.yammer.metrics.stats.Snapshot;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 
 /**
  * A timer metric which aggregates timing durations and provides duration statistics, plus
  * throughput statistics via {@link Meter}.
+ * <p/>
+ * A timer with a {@link SamplingPolicy} other than {@link SamplingPolicy#always()} only times some
+ * of its calls. Every call is counted and marks the rate meter, but the duration statistics are
+ * computed from the timed calls only, and {@link #sum()} is extrapolated from them.
+ * <p/>
+ * A timer which tracks in-flight calls also keeps the number of calls which have been started but
+ * not yet stopped, and the peak of that number, so that concurrency can be read off the timer
+ * itself instead of a separately maintained {@link Counter}.
  */
 public class Timer implements Metered, Stoppable, Sampling, Summarizable {
+    /**
+     * The start time returned by {@link #start()} for calls which the timer's sampling policy
+     * chose not to time.
+     */
+    static final long UNSAMPLED = Long.MIN_VALUE;
 
     private final TimeUnit durationUnit, rateUnit;
     private final Meter meter;
     private final Histogram histogram = new Histogram(SampleType.BIASED);
     private final Clock clock;
+    private final SamplingPolicy samplingPolicy;
+    private final LongAdder unsampled = new LongAdder();
+    private final AtomicLong inFlight;
+    private final AtomicLong peakInFlight;
+    private final LongGauge inFlightGauge;
+    private final LongGauge peakInFlightGauge;
+    private final ThreadLocal<TimerContext.Pool> contexts = new ThreadLocal<TimerContext.Pool>() {
+        @Override
+        protected TimerContext.Pool initialValue() {
+            return new TimerContext.Pool(Timer.this);
+        }
+    };
 
     /**
      * Creates a new {@link Timer}.
@@ -38,11 +69,69 @@ public class Timer implements Metered, Stoppable, Sampling, Summarizable {
      * @param clock        the clock used to calculate duration
      */
     Timer(ScheduledExecutorService tickThread, TimeUnit durationUnit, TimeUnit rateUnit, Clock clock) {
+        this(tickThread, durationUnit, rateUnit, clock, SamplingPolicy.always());
+    }
+
+    /**
+     * Creates a new {@link Timer}.
+     *
+     * @param tickThread     background thread for updating the rates
+     * @param durationUnit   the scale unit for this timer's duration metrics
+     * @param rateUnit       the scale unit for this timer's rate metrics
+     * @param clock          the clock used to calculate duration
+     * @param samplingPolicy the policy deciding which calls are timed
+     */
+    Timer(ScheduledExecutorService tickThread,
+          TimeUnit durationUnit,
+          TimeUnit rateUnit,
+          Clock clock,
+          SamplingPolicy samplingPolicy) {
+        this(tickThread, durationUnit, rateUnit, clock, samplingPolicy, false);
+    }
+
+    /**
+     * Creates a new {@link Timer}.
+     *
+     * @param tickThread     background thread for updating the rates
+     * @param durationUnit   the scale unit for this timer's duration metrics
+     * @param rateUnit       the scale unit for this timer's rate metrics
+     * @param clock          the clock used to calculate duration
+     * @param samplingPolicy the policy deciding which calls are timed
+     * @param trackInFlight  whether to track the number of in-flight calls
+     */
+    Timer(ScheduledExecutorService tickThread,
+          TimeUnit durationUnit,
+          TimeUnit rateUnit,
+          Clock clock,
+          SamplingPolicy samplingPolicy,
+          boolean trackInFlight) {
         this.durationUnit = durationUnit;
         this.rateUnit = rateUnit;
         this.meter = new Meter(tickThread, "calls", rateUnit, clock);
         this.clock = clock;
-        clear();
+        this.samplingPolicy = samplingPolicy;
+        if (trackInFlight) {
+            this.inFlight = new AtomicLong();
+            this.peakInFlight = new AtomicLong();
+            this.inFlightGauge = new LongGauge() {
+                @Override
+                public long longValue() {
+                    return inFlight.get();
+                }
+            };
+            this.peakInFlightGauge = new LongGauge() {
+                @Override
+                public long longValue() {
+                    return peakInFlight.getAndSet(inFlight.get());
+                }
+            };
+        } else {
+            this.inFlight = null;
+            this.peakInFlight = null;
+            this.inFlightGauge = null;
+            this.peakInFlightGauge = null;
+        }
+        histogram.clear();
     }
 
     /**
@@ -64,6 +153,7 @@ public class Timer implements Metered, Stoppable, Sampling, Summarizable {
      */
     public void clear() {
         histogram.clear();
+        unsampled.reset();
     }
 
     /**
@@ -86,26 +176,174 @@ public class Timer implements Metered, Stoppable, Sampling, Summarizable {
      * @throws Exception if {@code event} throws an {@link Exception}
      */
     public <T> T time(Callable<T> event) throws Exception {
-        final long startTime = clock.tick();
+        final long startTime = start();
+        final long cpuStartTime = startTime == UNSAMPLED ? -1 : startCpu();
         try {
             return event.call();
         } finally {
-            update(clock.tick() - startTime);
+            stop(startTime, cpuStartTime);
         }
     }
 
+    /**
+     * Times and records the duration of an asynchronous event, from the call to {@code event} until
+     * the stage it returns completes, either normally or exceptionally. No thread is blocked while
+     * waiting for the stage to complete.
+     *
+     * @param event a {@link Supplier} which starts an asynchronous process whose duration should
+     *              be timed
+     * @param <S>   the type of the stage returned by {@code event}
+     * @return the stage returned by {@code event}
+     */
+    public <S extends CompletionStage<?>> S timeAsync(Supplier<S> event) {
+        final long startTime = start();
+        final S stage;
+        try {
+            stage = event.get();
+        } catch (RuntimeException e) {
+            stop(startTime);
+            throw e;
+        }
+        return stopOnCompletion(startTime, stage);
+    }
+
+    /**
+     * Runs {@code task} on {@code executor}, recording the time it spends waiting to run with
+     * {@code queueTimer} and the time it spends running with this timer.
+     *
+     * @param executor   the executor which runs {@code task}
+     * @param task       the task to run
+     * @param queueTimer the timer which records the time {@code task} waits for the executor
+     * @param <T>        the type of the value returned by {@code task}
+     * @return a future of the value returned by {@code task}
+     */
+    public <T> CompletableFuture<T> timeAsync(Executor executor, Supplier<T> task, Timer queueTimer) {
+        final long queuedTime = queueTimer.start();
+        return CompletableFuture.supplyAsync(() -> {
+            queueTimer.stop(queuedTime);
+            final long startTime = start();
+            try {
+                return task.get();
+            } finally {
+                stop(startTime);
+            }
+        }, executor);
+    }
+
+    /**
+     * Records the duration of an asynchronous event started by {@link #start()} once the given
+     * stage completes. Useful when the stage is produced by code which may throw checked
+     * exceptions, where {@link #timeAsync(Supplier)} doesn't fit.
+     *
+     * @param startTime the value returned by {@link #start()}
+     * @param stage     the stage whose completion ends the event, or {@code null} if the event has
+     *                  already ended
+     * @param <S>       the type of the stage
+     * @return {@code stage}
+     */
+    public <S extends CompletionStage<?>> S stopOnCompletion(long startTime, S stage) {
+        if (stage == null) {
+            stop(startTime);
+        } else {
+            stage.whenComplete((result, exception) -> stop(startTime));
+        }
+        return stage;
+    }
+
     /**
      * Returns a timing {@link TimerContext}, which measures an elapsed time in nanoseconds.
      *
      * @return a new {@link TimerContext}
      */
     public TimerContext time() {
-        return new TimerContext(this, clock);
+        return new TimerContext(this);
+    }
+
+    /**
+     * Returns a timing {@link TimerContext} from a pool confined to the calling thread. Unlike
+     * {@link #time()}, this doesn't allocate once the thread has warmed up its pool, but the
+     * returned context must be stopped exactly once, by the calling thread, and contexts acquired
+     * on the same thread must be stopped in the reverse order of their acquisition (as they are
+     * when used with {@code try}/{@code finally}). It must not be used after being stopped.
+     *
+     * @return a thread-confined, reusable {@link TimerContext}
+     */
+    public TimerContext timeConfined() {
+        return contexts.get().acquire();
+    }
+
+    /**
+     * Returns the start time of an event to be passed to {@link #stop(long)} once the event
+     * completes. This is the allocation-free alternative to {@link #time()}. If the timer tracks
+     * in-flight calls, every call to this method must be matched by exactly one call to
+     * {@link #stop(long)}.
+     *
+     * @return the start time of the event, in nanoseconds
+     */
+    public long start() {
+        if (inFlight != null) {
+            enter();
+        }
+        return samplingPolicy.shouldTime(meter) ? clock.tick() : UNSAMPLED;
+    }
+
+    /**
+     * Records the duration of an event started by {@link #start()}.
+     *
+     * @param startTime the value returned by {@link #start()}
+     * @return the duration of the event, in nanoseconds, or {@code -1} if the timer's sampling
+     *         policy chose not to time the event
+     */
+    public long stop(long startTime) {
+        return stop(startTime, -1);
+    }
+
+    long stop(long startTime, long cpuStartTime) {
+        if (inFlight != null) {
+            inFlight.decrementAndGet();
+        }
+        if (startTime == UNSAMPLED) {
+            unsampled.increment();
+            meter.mark();
+            return -1;
+        }
+        final long duration = clock.tick() - startTime;
+        update(duration, cpuStartTime);
+        return duration;
+    }
+
+    /**
+     * Returns a gauge of the number of calls which have been started but not yet stopped.
+     *
+     * @return the in-flight gauge, or {@code null} if the timer doesn't track in-flight calls
+     */
+    public LongGauge inFlight() {
+        return inFlightGauge;
+    }
+
+    /**
+     * Returns a gauge of the highest number of in-flight calls since the gauge was last read, so
+     * that each reporting pass sees the peak concurrency of its own interval. If more than one
+     * reporter reads the gauge, each sees the peak since the last read by any of them.
+     *
+     * @return the peak in-flight gauge, or {@code null} if the timer doesn't track in-flight calls
+     */
+    public LongGauge peakInFlight() {
+        return peakInFlightGauge;
+    }
+
+    private void enter() {
+        // a single counter rather than a striped one: an exact peak needs an ordered total
+        final long current = inFlight.incrementAndGet();
+        long peak = peakInFlight.get();
+        while (current > peak && !peakInFlight.compareAndSet(peak, current)) {
+            peak = peakInFlight.get();
+        }
     }
 
     @Override
     public long count() {
-        return histogram.count();
+        return histogram.count() + unsampled.sum();
     }
 
     @Override
@@ -169,13 +407,19 @@ public class Timer implements Metered, Stoppable, Sampling, Summarizable {
     }
 
     /**
-     * Returns the sum of all recorded durations.
+     * Returns the sum of all recorded durations. If some calls weren't timed, this is estimated
+     * from the mean duration of the timed calls.
      *
      * @return the sum of all recorded durations
      */
     @Override
     public double sum() {
-        return convertFromNS(histogram.sum());
+        final long untimed = unsampled.sum();
+        final long timed = histogram.count();
+        if (untimed == 0 || timed == 0) {
+            return convertFromNS(histogram.sum());
+        }
+        return convertFromNS(histogram.sum() / timed * (timed + untimed));
     }
 
     @Override
@@ -193,6 +437,26 @@ public class Timer implements Metered, Stoppable, Sampling, Summarizable {
         return meter.eventType();
     }
 
+    /**
+     * Returns the CPU start time of a timed section, for timers which also record CPU time.
+     *
+     * @return the current thread's CPU time, or {@code -1} if CPU time isn't recorded for this
+     *         section
+     */
+    long startCpu() {
+        return -1;
+    }
+
+    /**
+     * Records the wall-clock duration of a timed section which started at the given CPU time.
+     *
+     * @param duration     the wall-clock duration, in nanoseconds
+     * @param cpuStartTime the value returned by {@link #startCpu()} at the start of the section
+     */
+    void update(long duration, long cpuStartTime) {
+        update(duration);
+    }
+
     private void update(long duration) {
         if (duration >= 0) {
             histogram.update(duration);
@@ -200,6 +464,15 @@ public class Timer implements Metered, Stoppable, Sampling, Summarizable {
         }
     }
 
+    /**
+     * Returns whether the timer has been updated since the last call, and resets that flag.
+     *
+     * @return whether the timer has been updated since the last call
+     */
+    boolean untouch() {
+        return meter.untouch();
+    }
+
     private double convertFromNS(double ns) {
         return ns / TimeUnit.NANOSECONDS.convert(1, durationUnit);
     }
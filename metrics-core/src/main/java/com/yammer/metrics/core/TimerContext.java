@@ -1,17 +1,20 @@
 package com.yammer.metrics.core;
 
 import java.io.Closeable;
-import java.util.concurrent.TimeUnit;
+import java.util.Arrays;
 
 /**
  * A timing context.
  *
  * @see Timer#time()
+ * @see Timer#timeConfined()
  */
 public class TimerContext implements Closeable {
     private final Timer timer;
-    private final Clock clock;
-    private final long startTime;
+    private final Pool pool;
+    private long startTime;
+    private long cpuStartTime;
+    private Thread cpuThread;
 
     /**
      * Creates a new {@link TimerContext} with the current time as its starting value and with the
@@ -19,21 +22,72 @@ public class TimerContext implements Closeable {
      *
      * @param timer the {@link Timer} to report the elapsed time to
      */
-    TimerContext(Timer timer, Clock clock) {
+    TimerContext(Timer timer) {
+        this(timer, null);
+    }
+
+    private TimerContext(Timer timer, Pool pool) {
         this.timer = timer;
-        this.clock = clock;
-        this.startTime = clock.tick();
+        this.pool = pool;
+        start();
+    }
+
+    private void start() {
+        this.startTime = timer.start();
+        this.cpuStartTime = startTime == Timer.UNSAMPLED ? -1 : timer.startCpu();
+        this.cpuThread = cpuStartTime < 0 ? null : Thread.currentThread();
     }
 
     /**
-     * Stops recording the elapsed time and updates the timer.
+     * Stops recording the elapsed time and updates the timer. The CPU time of the section is only
+     * recorded if the context is stopped by the thread which started it.
      */
     public void stop() {
-        timer.update(clock.tick() - startTime, TimeUnit.NANOSECONDS);
+        final long cpu = cpuThread == Thread.currentThread() ? cpuStartTime : -1;
+        cpuThread = null;
+        timer.stop(startTime, cpu);
+        if (pool != null) {
+            pool.release();
+        }
     }
 
     @Override
     public void close() {
         stop();
     }
+
+    /**
+     * A stack of reusable contexts for one timer, confined to a single thread. Nested timings of
+     * the same timer each get their own context, as long as they're stopped in reverse order.
+     */
+    static class Pool {
+        private final Timer timer;
+        private TimerContext[] contexts = new TimerContext[4];
+        private int depth;
+
+        Pool(Timer timer) {
+            this.timer = timer;
+        }
+
+        TimerContext acquire() {
+            if (depth == contexts.length) {
+                contexts = Arrays.copyOf(contexts, depth * 2);
+            }
+            TimerContext context = contexts[depth];
+            if (context == null) {
+                context = new TimerContext(timer, this);
+                contexts[depth] = context;
+            } else {
+                context.start();
+            }
+            depth++;
+            return context;
+        }
+
+        void release() {
+            if (depth > 0) {
+                depth--;
+            }
+        }
+    }
 }
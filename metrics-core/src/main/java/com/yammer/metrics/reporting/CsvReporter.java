@@ -231,6 +231,20 @@ public class CsvReporter extends AbstractPollingReporter implements
         stream.flush();
     }
 
+    @Override
+    public void processLongGauge(MetricName name, LongGauge gauge, Context context) throws IOException {
+        final PrintStream stream = context.getStream("# time,value");
+        stream.println(gauge.longValue());
+        stream.flush();
+    }
+
+    @Override
+    public void processDoubleGauge(MetricName name, DoubleGauge gauge, Context context) throws IOException {
+        final PrintStream stream = context.getStream("# time,value");
+        stream.println(gauge.doubleValue());
+        stream.flush();
+    }
+
     @Override
     public void start(long period, TimeUnit unit) {
         this.startTime = clock.time();
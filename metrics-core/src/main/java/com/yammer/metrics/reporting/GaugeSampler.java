@@ -0,0 +1,233 @@
+package com.yammer.metrics.reporting;
+
+import com.yammer.metrics.core.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+
+/**
+ * Evaluates a reporting pass' gauges in parallel on a bounded thread pool, giving each gauge at
+ * most a fixed amount of time from when its evaluation starts. A gauge which runs past its
+ * timeout, or whose previous evaluation is still stuck, is reported with its last known value and
+ * increments the sampler's {@code timeouts} counter, so that one wedged gauge can't stall
+ * reporting for the whole registry.
+ * <p/>
+ * Gauges queued behind others get their whole timeout once they start. A queued gauge only times
+ * out without starting if every thread is held by a gauge which is past its own timeout, or if no
+ * gauge has started or finished for a whole timeout, e.g. because the sampler's pool shares its
+ * threads with the task which is waiting for it.
+ */
+public class GaugeSampler {
+    // how often a pass checks whether a queued gauge has started
+    private static final long START_POLL_NS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final ExecutorService executor;
+    private final int threads;
+    private final long timeoutNS;
+    private final Counter timeouts;
+    private final Set<Sample> running = ConcurrentHashMap.newKeySet();
+    // when a sample last started or finished
+    private volatile long lastProgress;
+    private final ConcurrentMap<MetricName, Sample> inFlight =
+            new ConcurrentHashMap<MetricName, Sample>();
+    private final ConcurrentMap<MetricName, Object> lastValues =
+            new ConcurrentHashMap<MetricName, Object>();
+
+    /**
+     * Creates a new {@link GaugeSampler}.
+     *
+     * @param registry the registry which owns the sampler's thread pool and {@code timeouts}
+     *                 counter
+     * @param name     the sampler's name, used for its thread pool and as the scope of its
+     *                 {@code timeouts} counter
+     * @param threads  the maximum number of gauges evaluated concurrently
+     * @param timeout  the maximum time a gauge is given, from when its evaluation starts
+     * @param unit     the unit of {@code timeout}
+     */
+    public GaugeSampler(MetricsRegistry registry, String name, int threads, long timeout, TimeUnit unit) {
+        this.executor = registry.newScheduledThreadPool(threads, name);
+        this.threads = threads;
+        this.timeoutNS = unit.toNanos(timeout);
+        this.timeouts = registry.newCounter(GaugeSampler.class, "timeouts", name);
+    }
+
+    /**
+     * Returns the number of gauge evaluations which ran past their timeout.
+     *
+     * @return the {@code timeouts} counter
+     */
+    public Counter timeouts() {
+        return timeouts;
+    }
+
+    /**
+     * Evaluates every {@link Gauge} in {@code metrics} and returns gauges which replay the values
+     * read. Gauges which timed out before ever producing a value are left out of the result;
+     * gauges which threw rethrow the failure when read.
+     *
+     * @param metrics the metrics of the current reporting pass
+     * @return the sampled gauges, by name
+     */
+    public Map<MetricName, Gauge<?>> sample(Map<MetricName, Metric> metrics) {
+        final Map<MetricName, Gauge<?>> gauges = new HashMap<MetricName, Gauge<?>>();
+        final Map<MetricName, Sample> samples = new HashMap<MetricName, Sample>();
+        lastProgress = System.nanoTime();
+        for (Map.Entry<MetricName, Metric> entry : metrics.entrySet()) {
+            if (entry.getValue() instanceof Gauge) {
+                final Gauge<?> gauge = (Gauge<?>) entry.getValue();
+                gauges.put(entry.getKey(), gauge);
+                samples.put(entry.getKey(), submit(entry.getKey(), gauge));
+            }
+        }
+        inFlight.keySet().retainAll(gauges.keySet());
+        lastValues.keySet().retainAll(gauges.keySet());
+
+        final Map<MetricName, Gauge<?>> sampled = new HashMap<MetricName, Gauge<?>>();
+        for (Map.Entry<MetricName, Sample> entry : samples.entrySet()) {
+            final MetricName name = entry.getKey();
+            final Gauge<?> gauge = gauges.get(name);
+            try {
+                final Object value = await(entry.getValue());
+                if (value != null) {
+                    lastValues.put(name, value);
+                }
+                sampled.put(name, replay(gauge, value));
+            } catch (TimeoutException e) {
+                timeouts.inc();
+                final Object lastValue = lastValues.get(name);
+                if (lastValue != null) {
+                    sampled.put(name, replay(gauge, lastValue));
+                }
+            } catch (ExecutionException e) {
+                sampled.put(name, failed(e.getCause()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return sampled;
+    }
+
+    private Sample submit(MetricName name, Gauge<?> gauge) {
+        final Sample previous = inFlight.get(name);
+        if (previous != null && !previous.isDone()) {
+            // don't pile more work onto a gauge which is still stuck
+            return previous;
+        }
+        final Sample sample = new Sample(gauge);
+        executor.execute(sample);
+        inFlight.put(name, sample);
+        return sample;
+    }
+
+    // waits for a sample until it has run for the timeout, or until it can't start
+    private Object await(Sample sample) throws InterruptedException, ExecutionException, TimeoutException {
+        while (true) {
+            final long started = sample.started;
+            final long wait;
+            if (started != 0) {
+                wait = started + timeoutNS - System.nanoTime();
+            } else if (allThreadsOverdue() || System.nanoTime() - lastProgress >= timeoutNS) {
+                wait = 0;
+            } else {
+                wait = Math.min(timeoutNS, START_POLL_NS);
+            }
+            try {
+                return sample.get(Math.max(0, wait), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                if (started != 0 || wait <= 0) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private boolean allThreadsOverdue() {
+        final long now = System.nanoTime();
+        int overdue = 0;
+        for (Sample sample : running) {
+            final long started = sample.started;
+            if (started != 0 && now - started >= timeoutNS) {
+                overdue++;
+            }
+        }
+        return overdue >= threads;
+    }
+
+    private static Gauge<?> replay(Gauge<?> gauge, final Object value) {
+        if (gauge instanceof LongGauge) {
+            final long longValue = (Long) value;
+            return new LongGauge() {
+                @Override
+                public long longValue() {
+                    return longValue;
+                }
+            };
+        }
+        if (gauge instanceof DoubleGauge) {
+            final double doubleValue = (Double) value;
+            return new DoubleGauge() {
+                @Override
+                public double doubleValue() {
+                    return doubleValue;
+                }
+            };
+        }
+        return new Gauge<Object>() {
+            @Override
+            public Object value() {
+                return value;
+            }
+        };
+    }
+
+    private static Gauge<?> failed(final Throwable cause) {
+        return new Gauge<Object>() {
+            @Override
+            public Object value() {
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new RuntimeException(cause);
+            }
+        };
+    }
+
+    /**
+     * One evaluation of a gauge, which knows when it started running.
+     */
+    private class Sample extends FutureTask<Object> {
+        private volatile long started;
+
+        Sample(final Gauge<?> gauge) {
+            super(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    if (gauge instanceof LongGauge) {
+                        return ((LongGauge) gauge).longValue();
+                    }
+                    if (gauge instanceof DoubleGauge) {
+                        return ((DoubleGauge) gauge).doubleValue();
+                    }
+                    return gauge.value();
+                }
+            });
+        }
+
+        @Override
+        public void run() {
+            // System.nanoTime() may be 0, which marks a sample which hasn't started
+            started = System.nanoTime() | 1;
+            lastProgress = started;
+            running.add(this);
+            try {
+                super.run();
+            } finally {
+                running.remove(this);
+                lastProgress = System.nanoTime();
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.yammer.metrics.util;
+
+import com.yammer.metrics.core.Clock;
+import com.yammer.metrics.core.Gauge;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A gauge which caches an expensive value and recomputes it at most once per timeout, no matter
+ * how many reporters read it.
+ * <p/>
+ * By default the value is recomputed by the first caller to find it stale, while concurrent
+ * callers keep getting the previous value. When created with a refresh {@link Executor}, stale
+ * values are recomputed on that executor instead and every caller gets the last value without
+ * blocking, so a slow gauge never holds up a reporting pass. Only the very first read, before any
+ * value exists, computes the value inline.
+ * <p/>
+ * A returned value is at most one timeout plus the duration of one {@link #loadValue()} call old.
+ */
+public abstract class CachedGauge<T> extends Gauge<T> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CachedGauge.class);
+
+    private final Clock clock;
+    private final long timeoutNS;
+    private final Executor refreshExecutor;
+    private final AtomicLong reloadAt = new AtomicLong();
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private volatile boolean loaded;
+    private volatile T value;
+
+    /**
+     * Creates a new {@link CachedGauge} which recomputes its value inline.
+     *
+     * @param timeout the maximum age of the cached value
+     * @param unit    the unit of {@code timeout}
+     */
+    protected CachedGauge(long timeout, TimeUnit unit) {
+        this(Clock.defaultClock(), timeout, unit);
+    }
+
+    /**
+     * Creates a new {@link CachedGauge} which recomputes its value inline.
+     *
+     * @param clock   the clock used to expire the cached value
+     * @param timeout the maximum age of the cached value
+     * @param unit    the unit of {@code timeout}
+     */
+    protected CachedGauge(Clock clock, long timeout, TimeUnit unit) {
+        this(clock, timeout, unit, null);
+    }
+
+    /**
+     * Creates a new {@link CachedGauge} which recomputes its value on the given executor.
+     *
+     * @param refreshExecutor the executor which recomputes stale values
+     * @param timeout         the maximum age of the cached value
+     * @param unit            the unit of {@code timeout}
+     */
+    protected CachedGauge(Executor refreshExecutor, long timeout, TimeUnit unit) {
+        this(Clock.defaultClock(), timeout, unit, refreshExecutor);
+    }
+
+    /**
+     * Creates a new {@link CachedGauge}.
+     *
+     * @param clock           the clock used to expire the cached value
+     * @param timeout         the maximum age of the cached value
+     * @param unit            the unit of {@code timeout}
+     * @param refreshExecutor the executor which recomputes stale values, or {@code null} to
+     *                        recompute them inline
+     */
+    protected CachedGauge(Clock clock, long timeout, TimeUnit unit, Executor refreshExecutor) {
+        this.clock = clock;
+        this.timeoutNS = unit.toNanos(timeout);
+        this.refreshExecutor = refreshExecutor;
+    }
+
+    /**
+     * Computes the gauge's value. Called at most once per timeout.
+     *
+     * @return the new value
+     */
+    protected abstract T loadValue();
+
+    @Override
+    public T value() {
+        if (!loaded) {
+            return loadInitialValue();
+        }
+
+        final long now = clock.tick();
+        final long next = reloadAt.get();
+        if (now >= next && reloadAt.compareAndSet(next, now + timeoutNS)) {
+            if (refreshExecutor == null) {
+                value = loadValue();
+            } else {
+                refreshAsynchronously();
+            }
+        }
+        return value;
+    }
+
+    private synchronized T loadInitialValue() {
+        if (!loaded) {
+            value = loadValue();
+            reloadAt.set(clock.tick() + timeoutNS);
+            loaded = true;
+        }
+        return value;
+    }
+
+    private void refreshAsynchronously() {
+        if (refreshing.compareAndSet(false, true)) {
+            try {
+                refreshExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            value = loadValue();
+                        } catch (Exception e) {
+                            LOGGER.warn("Error refreshing cached gauge, keeping the last value", e);
+                        } finally {
+                            refreshing.set(false);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                refreshing.set(false);
+                LOGGER.debug("Cached gauge refresh rejected, keeping the last value", e);
+            }
+        }
+    }
+}
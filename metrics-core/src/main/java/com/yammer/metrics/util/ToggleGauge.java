@@ -1,17 +1,17 @@
 package com.yammer.metrics.util;
 
-import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.LongGauge;
 
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Returns a {@code 1} the first time it's called, a {@code 0} every time after that.
  */
-public class ToggleGauge extends Gauge<Integer> {
+public class ToggleGauge extends LongGauge {
     private final AtomicInteger value = new AtomicInteger(1);
 
     @Override
-    public Integer value() {
+    public long longValue() {
         try {
             return value.get();
         } finally {
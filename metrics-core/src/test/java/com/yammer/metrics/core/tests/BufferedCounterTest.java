@@ -0,0 +1,112 @@
+package com.yammer.metrics.core.tests;
+
+import com.yammer.metrics.core.BufferedCounter;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class BufferedCounterTest {
+    private MetricsRegistry registry;
+    private BufferedCounter counter;
+
+    @Before
+    public void setUp() throws Exception {
+        this.registry = new MetricsRegistry();
+        this.counter = registry.newBufferedCounter(new MetricName(BufferedCounterTest.class, "counter"), 10);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        registry.shutdown();
+    }
+
+    @Test
+    public void startsAtZero() throws Exception {
+        assertThat(counter.count(),
+                   is(0L));
+
+        assertThat(counter.isActive(),
+                   is(false));
+    }
+
+    @Test
+    public void buffersUpdatesUntilTheThresholdIsReached() throws Exception {
+        for (int i = 0; i < 9; i++) {
+            counter.inc();
+        }
+
+        assertThat("updates below the threshold are not yet published",
+                   counter.count(),
+                   is(0L));
+
+        counter.inc();
+
+        assertThat("reaching the threshold publishes the pending updates",
+                   counter.count(),
+                   is(10L));
+
+        assertThat(counter.isActive(),
+                   is(true));
+    }
+
+    @Test
+    public void publishesPendingUpdatesOnTheFirstUpdateAfterARead() throws Exception {
+        counter.inc(3);
+
+        assertThat(counter.count(),
+                   is(0L));
+
+        counter.inc();
+
+        assertThat("the read asked the thread to publish on its next update",
+                   counter.count(),
+                   is(4L));
+    }
+
+    @Test
+    public void flushPublishesPendingUpdates() throws Exception {
+        counter.inc(3);
+        counter.dec();
+        counter.flush();
+
+        assertThat(counter.count(),
+                   is(2L));
+    }
+
+    @Test
+    public void includesAllUpdatesFromTerminatedThreads() throws Exception {
+        final Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 1005; j++) {
+                        counter.inc();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(counter.count(),
+                   is(4020L));
+    }
+
+    @Test
+    public void isZeroAfterBeingCleared() throws Exception {
+        counter.inc(3);
+        counter.flush();
+        counter.clear();
+
+        assertThat(counter.count(),
+                   is(0L));
+    }
+}
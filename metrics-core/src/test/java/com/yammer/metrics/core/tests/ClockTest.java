@@ -4,6 +4,7 @@ import com.yammer.metrics.core.Clock;
 import org.junit.Test;
 
 import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
 
 import static org.hamcrest.Matchers.closeTo;
 import static org.hamcrest.Matchers.instanceOf;
@@ -38,4 +39,25 @@ public class ClockTest {
         assertThat(Clock.defaultClock(),
                    is(instanceOf(Clock.UserTimeClock.class)));
     }
+
+    @Test
+    public void coarseClock() throws Exception {
+        final Clock.CoarseClock clock = new Clock.CoarseClock(1, TimeUnit.MILLISECONDS);
+        try {
+            assertThat((double) clock.time(),
+                       is(closeTo(System.currentTimeMillis(), 100)));
+
+            assertThat((double) clock.tick(),
+                       is(closeTo(System.nanoTime(), TimeUnit.MILLISECONDS.toNanos(100))));
+
+            final long before = clock.tick();
+            Thread.sleep(20);
+
+            assertThat("the clock is updated in the background",
+                       clock.tick() > before,
+                       is(true));
+        } finally {
+            clock.stop();
+        }
+    }
 }
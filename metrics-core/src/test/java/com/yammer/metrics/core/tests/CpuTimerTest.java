@@ -0,0 +1,127 @@
+package com.yammer.metrics.core.tests;
+
+import com.yammer.metrics.core.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class CpuTimerTest {
+    private final MetricName name = new MetricName(CpuTimerTest.class, "timer");
+    private final ManualClock cpuClock = new ManualClock();
+    private MetricsRegistry registry;
+    private CpuTimer timer;
+
+    @Before
+    public void setUp() throws Exception {
+        this.registry = new MetricsRegistry(new Clock() {
+            // a mock clock that increments its ticker by 50msec per call
+            private long val = 0;
+
+            @Override
+            public long tick() {
+                return val += 50000000;
+            }
+        });
+        this.timer = registry.newCpuTimer(name, TimeUnit.MILLISECONDS, TimeUnit.SECONDS, cpuClock, 1);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        registry.shutdown();
+    }
+
+    @Test
+    public void recordsWallAndCpuTimeWithOneContext() throws Exception {
+        final TimerContext context = timer.time();
+        cpuClock.ticks += 20000000;
+        context.stop();
+
+        assertThat("records the wall-clock duration",
+                   timer.max(),
+                   is(closeTo(50.0, 0.001)));
+
+        assertThat("records the CPU time",
+                   timer.cpuTime().max(),
+                   is(closeTo(20.0, 0.001)));
+
+        assertThat(timer.cpuTime().count(),
+                   is(1L));
+
+        assertThat(timer.cpuUtilisation().doubleValue(),
+                   is(closeTo(0.4, 0.001)));
+    }
+
+    @Test
+    public void registersTheCpuUtilisationGauge() throws Exception {
+        final MetricName gaugeName = new MetricName(CpuTimerTest.class, "timer-cpu-utilisation");
+
+        assertThat(registry.allMetrics().get(gaugeName),
+                   is(sameInstance((Metric) timer.cpuUtilisation())));
+    }
+
+    @Test
+    public void hasNoUtilisationBeforeAnyCpuTimeIsRecorded() throws Exception {
+        assertThat(Double.isNaN(timer.cpuUtilisation().doubleValue()),
+                   is(true));
+    }
+
+    @Test
+    public void recordsOnlyWallTimeForPrimitiveTimings() throws Exception {
+        timer.stop(timer.start());
+
+        assertThat(timer.count(),
+                   is(1L));
+
+        assertThat(timer.cpuTime().count(),
+                   is(0L));
+    }
+
+    @Test
+    public void recordsOnlyWallTimeForContextsStoppedOnAnotherThread() throws Exception {
+        final TimerContext context = timer.time();
+        cpuClock.ticks += 20000000;
+        final Thread stopper = new Thread(context::stop);
+        stopper.start();
+        stopper.join();
+
+        assertThat(timer.count(),
+                   is(1L));
+
+        assertThat(timer.cpuTime().count(),
+                   is(0L));
+    }
+
+    @Test
+    public void samplesCpuTimeForOneInNSections() throws Exception {
+        final CpuTimer sampled = registry.newCpuTimer(new MetricName(CpuTimerTest.class, "sampled"),
+                                                      TimeUnit.MILLISECONDS,
+                                                      TimeUnit.SECONDS,
+                                                      cpuClock,
+                                                      10);
+        for (int i = 0; i < 10000; i++) {
+            sampled.time().stop();
+        }
+
+        assertThat("every section is counted",
+                   sampled.count(),
+                   is(10000L));
+
+        assertThat("roughly one in ten sections records CPU time",
+                   sampled.cpuTime().count(),
+                   is(allOf(greaterThan(700L), lessThan(1300L))));
+    }
+
+    private static class ManualClock extends Clock {
+        private long ticks;
+
+        @Override
+        public long tick() {
+            return ticks;
+        }
+    }
+}
@@ -1,14 +1,15 @@
 package com.yammer.metrics.core.tests;
 
+import com.yammer.metrics.core.DoubleGauge;
 import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.LongGauge;
 import com.yammer.metrics.core.MetricName;
 import com.yammer.metrics.core.MetricProcessor;
 import org.junit.Test;
 
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertThat;
-import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.*;
 
 public class GaugeTest {
     final Gauge<String> gauge = new Gauge<String>() {
@@ -36,4 +37,48 @@ public class GaugeTest {
 
         verify(processor).processGauge(name, gauge, context);
     }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void longGaugesAreProcessedWithoutBoxing() throws Exception {
+        final LongGauge longGauge = new LongGauge() {
+            @Override
+            public long longValue() {
+                return 12;
+            }
+        };
+        final MetricName name = new MetricName(GaugeTest.class, "long");
+        final Object context = new Object();
+        final MetricProcessor<Object> processor = mock(MetricProcessor.class);
+
+        longGauge.processWith(processor, name, context);
+
+        verify(processor).processLongGauge(name, longGauge, context);
+        verify(processor, never()).processGauge(name, longGauge, context);
+
+        assertThat(longGauge.value(),
+                   is(12L));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void doubleGaugesAreProcessedWithoutBoxing() throws Exception {
+        final DoubleGauge doubleGauge = new DoubleGauge() {
+            @Override
+            public double doubleValue() {
+                return 0.5;
+            }
+        };
+        final MetricName name = new MetricName(GaugeTest.class, "double");
+        final Object context = new Object();
+        final MetricProcessor<Object> processor = mock(MetricProcessor.class);
+
+        doubleGauge.processWith(processor, name, context);
+
+        verify(processor).processDoubleGauge(name, doubleGauge, context);
+        verify(processor, never()).processGauge(name, doubleGauge, context);
+
+        assertThat(doubleGauge.value(),
+                   is(0.5));
+    }
 }
@@ -0,0 +1,97 @@
+package com.yammer.metrics.core.tests;
+
+import com.yammer.metrics.core.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class MetricFamilyTest {
+    private final MetricName name = new MetricName(MetricFamilyTest.class, "requests");
+    private MetricsRegistry registry;
+    private MetricFamily<Timer> family;
+
+    @Before
+    public void setUp() throws Exception {
+        this.registry = new MetricsRegistry();
+        this.family = registry.timerFamily(name, "endpoint", "status");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        registry.shutdown();
+    }
+
+    @Test
+    public void registersEachMemberUnderATaggedName() throws Exception {
+        final Timer timer = family.labels("GET /x", "200");
+
+        final Map<String, String> tags = new HashMap<String, String>();
+        tags.put("endpoint", "GET /x");
+        tags.put("status", "200");
+
+        assertThat(registry.allMetrics().get(new MetricName(MetricFamilyTest.class, "requests", tags)),
+                   is(sameInstance((Metric) timer)));
+    }
+
+    @Test
+    public void returnsTheSameMemberForTheSameValues() throws Exception {
+        final String[] values = {"GET /x", "200"};
+        final Timer timer = family.labels(values);
+        values[1] = "500";
+
+        assertThat(family.labels("GET /x", "200"),
+                   is(sameInstance(timer)));
+
+        assertThat(family.labels("GET /x", "500"),
+                   is(not(sameInstance(timer))));
+
+        assertThat("families with the same name share members",
+                   registry.timerFamily(name, "endpoint", "status").labels("GET /x", "200"),
+                   is(sameInstance(timer)));
+    }
+
+    @Test
+    public void recreatesRemovedMembers() throws Exception {
+        final Counter counter = registry.counterFamily(name, "status").labels("200");
+        registry.removeMetric(new MetricName(MetricFamilyTest.class, "requests",
+                                             Collections.singletonMap("status", "200")));
+
+        assertThat(registry.counterFamily(name, "status").labels("200"),
+                   is(not(sameInstance(counter))));
+    }
+
+    @Test
+    public void registersRejectedValuesOnceThereIsRoom() throws Exception {
+        final Timer accepted = family.labels("GET /x", "200");
+        registry.setMaxMetrics(1);
+        final Timer rejected = family.labels("GET /x", "500");
+
+        assertThat(rejected,
+                   is(not(sameInstance(accepted))));
+
+        registry.setMaxMetrics(Integer.MAX_VALUE);
+        final Timer registered = family.labels("GET /x", "500");
+
+        assertThat(registered,
+                   is(not(sameInstance(rejected))));
+
+        final Map<String, String> tags = new HashMap<String, String>();
+        tags.put("endpoint", "GET /x");
+        tags.put("status", "500");
+
+        assertThat(registry.allMetrics().get(new MetricName(MetricFamilyTest.class, "requests", tags)),
+                   is(sameInstance((Metric) registered)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTheWrongNumberOfValues() throws Exception {
+        family.labels("GET /x");
+    }
+}
@@ -121,4 +121,15 @@ public class MetricNameTest {
         assertThat(new MetricName("group", "type", "name", "scope", "bean").hashCode(),
                    is(not(equalTo(new MetricName("group", "type", "name", "scope", "bean2").hashCode()))));
     }
+
+    @Test
+    public void buildsItsCanonicalNameOnce() throws Exception {
+        final MetricName unnamed = new MetricName("group", "type", "name", "scope");
+
+        assertThat(unnamed.toString(),
+                   is(sameInstance(unnamed.toString())));
+
+        assertThat(unnamed.getMBeanName(),
+                   is(sameInstance(unnamed.toString())));
+    }
 }
@@ -6,12 +6,23 @@ import org.junit.Before;
 import org.junit.Test;
 import org.mockito.InOrder;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
-import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Mockito.*;
 
@@ -118,4 +129,572 @@ public class MetricsRegistryTest {
         assertThat(service.isShutdown(),
                    is(true));
     }
+
+    @Test
+    public void handlesReturnTheRegisteredMetric() throws Exception {
+        final MetricName name = new MetricName(MetricsRegistryTest.class, "handled");
+        final MetricHandle<Counter> handle = registry.newHandle(name, registry::newCounter);
+
+        final Counter counter = handle.get();
+
+        assertThat(registry.allMetrics().get(name),
+                   is(sameInstance((Metric) counter)));
+
+        assertThat(handle.get(),
+                   is(sameInstance(counter)));
+
+        assertThat("there is one handle per name",
+                   registry.newHandle(name, registry::newCounter),
+                   is(sameInstance(handle)));
+    }
+
+    @Test
+    public void handlesRecreateRemovedMetrics() throws Exception {
+        final MetricName name = new MetricName(MetricsRegistryTest.class, "handled");
+        final MetricHandle<Counter> handle = registry.newHandle(name, registry::newCounter);
+        final Counter removed = handle.get();
+
+        registry.removeMetric(name);
+
+        final Counter recreated = handle.get();
+
+        assertThat(recreated,
+                   is(not(sameInstance(removed))));
+
+        assertThat(registry.allMetrics().get(name),
+                   is(sameInstance((Metric) recreated)));
+    }
+
+    @Test
+    public void handlesAreReleasedWithTheirMetric() throws Exception {
+        final MetricName name = new MetricName(MetricsRegistryTest.class, "handled");
+        final MetricHandle<Counter> handle = registry.newHandle(name, registry::newCounter);
+        handle.get();
+
+        registry.removeMetric(name);
+
+        assertThat(registry.newHandle(name, registry::newCounter),
+                   is(not(sameInstance(handle))));
+
+        // the old handle still follows the metric it recreates
+        final Counter recreated = handle.get();
+        registry.removeMetric(name);
+
+        assertThat(handle.get(),
+                   is(not(sameInstance(recreated))));
+    }
+
+    @Test
+    public void replacedHandlesFollowTheHandleWhichReplacedThem() throws Exception {
+        final MetricName name = new MetricName(MetricsRegistryTest.class, "handled");
+        final AtomicInteger lookups = new AtomicInteger();
+        final Function<MetricName, Counter> factory = n -> {
+            lookups.incrementAndGet();
+            return registry.newCounter(n);
+        };
+        final MetricHandle<Counter> replaced = registry.newHandle(name, factory);
+        replaced.get();
+        registry.removeMetric(name);
+
+        final Counter counter = registry.newHandle(name, factory).get();
+
+        assertThat(replaced.get(),
+                   is(sameInstance(counter)));
+
+        final int before = lookups.get();
+        replaced.get();
+        replaced.get();
+
+        assertThat("the replaced handle uses the cached metric",
+                   lookups.get(),
+                   is(before));
+    }
+
+    @Test
+    public void groupedMetricsFollowAddsAndRemoves() throws Exception {
+        final SortedMap<String, SortedMap<MetricName, Metric>> grouped = registry.groupedMetrics();
+        final Counter counter = registry.newCounter(Object.class, "one");
+
+        assertThat(grouped.get(Object.class.getCanonicalName()).get(new MetricName(Object.class, "one")),
+                   is(sameInstance((Metric) counter)));
+
+        registry.removeMetric(Object.class, "one");
+
+        assertThat("groups are dropped once empty",
+                   grouped.isEmpty(),
+                   is(true));
+    }
+
+    @Test
+    public void groupedMetricsKeepMetricsReAddedWhileTheirPredecessorIsRemoved() throws Exception {
+        final MetricName name = new MetricName("group", "type", "one", null, Collections.singletonMap("k", "v"));
+        final ReAddingRegistry reAdding = new ReAddingRegistry();
+        try {
+            final Counter removed = reAdding.newCounter(name);
+            reAdding.reAdd = name;
+
+            reAdding.removeMetric(name);
+
+            final Metric readded = reAdding.allMetrics().get(name);
+            assertThat(readded,
+                       is(not(sameInstance((Metric) removed))));
+
+            assertThat(reAdding.groupedMetrics().get("group.type").get(name),
+                       is(sameInstance(readded)));
+
+            assertThat(reAdding.groupedMetrics(new MetricQuery(Collections.singletonMap("k", "v")))
+                               .get("group.type").get(name),
+                       is(sameInstance(readded)));
+        } finally {
+            reAdding.shutdown();
+        }
+    }
+
+    @Test
+    public void groupedMetricsCanBeFiltered() throws Exception {
+        registry.newCounter(Object.class, "one");
+        final Counter two = registry.newCounter(String.class, "two");
+
+        final SortedMap<String, SortedMap<MetricName, Metric>> grouped =
+                registry.groupedMetrics(new MetricPredicate() {
+                    @Override
+                    public boolean matches(MetricName name, Metric metric) {
+                        return name.getName().equals("two");
+                    }
+                });
+
+        assertThat(grouped.size(),
+                   is(1));
+
+        assertThat(grouped.get(String.class.getCanonicalName()).get(new MetricName(String.class, "two")),
+                   is(sameInstance((Metric) two)));
+    }
+
+    @Test
+    public void queriesMetricsByGroupPrefix() throws Exception {
+        final Counter one = registry.newCounter(Object.class, "one");
+        registry.newCounter(String.class, "two");
+
+        final SortedMap<String, SortedMap<MetricName, Metric>> grouped =
+                registry.groupedMetrics(new MetricQuery("java.lang.Obj"));
+
+        assertThat(grouped.size(),
+                   is(1));
+
+        assertThat(grouped.get(Object.class.getCanonicalName()).get(new MetricName(Object.class, "one")),
+                   is(sameInstance((Metric) one)));
+    }
+
+    @Test
+    public void queriesMetricsByTag() throws Exception {
+        final MetricName east = new MetricName(Object.class, "requests", Collections.singletonMap("region", "east"));
+        final MetricName west = new MetricName(Object.class, "requests", Collections.singletonMap("region", "west"));
+        final Counter eastCounter = registry.newCounter(east);
+        registry.newCounter(west);
+
+        final MetricQuery query = new MetricQuery(Collections.singletonMap("region", "east"));
+        final SortedMap<String, SortedMap<MetricName, Metric>> grouped = registry.groupedMetrics(query);
+
+        assertThat(grouped.get(Object.class.getCanonicalName()).size(),
+                   is(1));
+
+        assertThat(grouped.get(Object.class.getCanonicalName()).get(east),
+                   is(sameInstance((Metric) eastCounter)));
+
+        assertThat("the query matches like any other predicate",
+                   query.matches(west, null),
+                   is(false));
+
+        registry.removeMetric(east);
+
+        assertThat(registry.groupedMetrics(query).isEmpty(),
+                   is(true));
+    }
+
+    @Test
+    public void rejectsNewMetricsOverTheLimitWithASharedOverflowMetric() throws Exception {
+        registry.setMaxMetrics(1);
+        final Timer first = registry.newTimer(new MetricName(Object.class, "first"),
+                                              TimeUnit.MILLISECONDS, TimeUnit.SECONDS);
+        final Timer second = registry.newTimer(new MetricName(Object.class, "second"),
+                                               TimeUnit.MILLISECONDS, TimeUnit.SECONDS);
+        final Timer third = registry.newTimer(new MetricName(Object.class, "third"),
+                                              TimeUnit.MILLISECONDS, TimeUnit.SECONDS);
+
+        assertThat("existing metrics are still returned",
+                   registry.newTimer(new MetricName(Object.class, "first"), TimeUnit.MILLISECONDS, TimeUnit.SECONDS),
+                   is(sameInstance(first)));
+
+        assertThat("rejected metrics share one overflow metric",
+                   third,
+                   is(sameInstance(second)));
+
+        assertThat(registry.allMetrics().get(new MetricName(MetricsRegistry.class, "overflow", "Timer-milliseconds-seconds")),
+                   is(sameInstance((Metric) second)));
+
+        assertThat(registry.allMetrics().containsKey(new MetricName(Object.class, "second")),
+                   is(false));
+
+        assertThat(((Counter) registry.allMetrics().get(new MetricName(MetricsRegistry.class, "rejected-metrics"))).count(),
+                   is(2L));
+    }
+
+    @Test
+    public void keepsOneOverflowMetricPerKindAndUnits() throws Exception {
+        registry.setMaxMetrics(1);
+        registry.newCounter(Object.class, "first");
+        final Timer millis = registry.newTimer(new MetricName(Object.class, "millis"),
+                                               TimeUnit.MILLISECONDS, TimeUnit.SECONDS);
+        final Timer micros = registry.newTimer(new MetricName(Object.class, "micros"),
+                                               TimeUnit.MICROSECONDS, TimeUnit.SECONDS);
+        final Histogram biased = registry.newHistogram(Object.class, "biased", true);
+        final Histogram uniform = registry.newHistogram(Object.class, "uniform", false);
+
+        assertThat(micros,
+                   is(not(sameInstance(millis))));
+
+        assertThat(micros.durationUnit(),
+                   is(TimeUnit.MICROSECONDS));
+
+        assertThat(uniform,
+                   is(not(sameInstance(biased))));
+
+        assertThat(registry.allMetrics().get(new MetricName(MetricsRegistry.class, "overflow", "Histogram-uniform")),
+                   is(sameInstance((Metric) uniform)));
+
+        assertThat("the metric passed in is used to find the kind",
+                   registry.newTimer(new MetricName(Object.class, "other micros"),
+                                     TimeUnit.MICROSECONDS, TimeUnit.SECONDS),
+                   is(sameInstance(micros)));
+    }
+
+    @Test
+    public void limitsTheNumberOfMetricsPerGroup() throws Exception {
+        registry.setMaxMetricsPerGroup(2);
+        registry.setMaxMetricsPerGroup("java.lang.String", 1);
+
+        registry.newCounter(Object.class, "one");
+        registry.newCounter(Object.class, "two");
+        final Counter three = registry.newCounter(Object.class, "three");
+        registry.newCounter(String.class, "one");
+        final Counter two = registry.newCounter(String.class, "two");
+
+        assertThat(registry.groupedMetrics().get("java.lang.Object").size(),
+                   is(2));
+
+        assertThat(registry.groupedMetrics().get("java.lang.String").size(),
+                   is(1));
+
+        assertThat(two,
+                   is(sameInstance(three)));
+
+        registry.removeMetric(Object.class, "one");
+
+        assertThat("removing a metric makes room for another",
+                   registry.newCounter(Object.class, "three"),
+                   is(not(sameInstance(three))));
+    }
+
+    @Test
+    public void returnsRejectedGaugesWithoutRegisteringThem() throws Exception {
+        registry.setMaxMetrics(1);
+        registry.newCounter(Object.class, "one");
+        final Gauge<Integer> gauge = new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return 1;
+            }
+        };
+
+        assertThat(registry.newGauge(Object.class, "gauge", gauge),
+                   is(sameInstance(gauge)));
+
+        assertThat(registry.allMetrics().containsKey(new MetricName(Object.class, "gauge")),
+                   is(false));
+    }
+
+    @Test
+    public void removesMetricsWhichHaveBeenIdleForTheGivenTime() throws Exception {
+        final ManualClock clock = new ManualClock();
+        final MetricsRegistry idling = new MetricsRegistry(clock);
+        try {
+            final MetricsRegistryListener listener = mock(MetricsRegistryListener.class);
+            idling.addListener(listener);
+            final MetricName idleName = new MetricName(Object.class, "idle");
+            final MetricName busyName = new MetricName(Object.class, "busy");
+            final MetricName directName = new MetricName(Object.class, "direct");
+            idling.newHandle(idleName, idling::newCounter).get().inc();
+            final Meter busy = idling.newHandle(busyName, n -> idling.newMeter(n, "things", TimeUnit.SECONDS)).get();
+            final Counter direct = idling.newCounter(directName);
+
+            idling.removeIdleMetrics(1, TimeUnit.MINUTES);
+            clock.ticks += TimeUnit.SECONDS.toNanos(61);
+            busy.mark();
+            idling.removeIdleMetrics(1, TimeUnit.MINUTES);
+
+            assertThat(idling.allMetrics().containsKey(idleName),
+                       is(false));
+
+            assertThat(idling.allMetrics().get(busyName),
+                       is(sameInstance((Metric) busy)));
+
+            assertThat("metrics created directly are never removed",
+                       idling.allMetrics().get(directName),
+                       is(sameInstance((Metric) direct)));
+
+            verify(listener).onMetricRemoved(idleName);
+        } finally {
+            idling.shutdown();
+        }
+    }
+
+    @Test
+    public void removesTheGaugesOfARemovedTimer() throws Exception {
+        final MetricName name = new MetricName(Object.class, "timer");
+        registry.newTimer(name, TimeUnit.MILLISECONDS, TimeUnit.SECONDS, SamplingPolicy.always(), true);
+
+        registry.removeMetric(name);
+
+        assertThat(registry.allMetrics().isEmpty(),
+                   is(true));
+    }
+
+    @Test
+    public void registersMetricsInBulk() throws Exception {
+        final MetricsRegistryListener listener = mock(MetricsRegistryListener.class);
+        registry.addListener(listener);
+        final MetricName existingName = new MetricName(Object.class, "existing");
+        final MetricName newName = new MetricName(Object.class, "new");
+        final Counter existing = registry.newCounter(existingName);
+        final Histogram histogram = new MetricsRegistry().newHistogram(Object.class, "other");
+
+        final Map<MetricName, Metric> newMetrics = new HashMap<MetricName, Metric>();
+        newMetrics.put(existingName, histogram);
+        newMetrics.put(newName, histogram);
+        final Map<MetricName, Metric> registered = registry.register(newMetrics);
+
+        assertThat(registered.get(existingName),
+                   is(sameInstance((Metric) existing)));
+
+        assertThat(registry.allMetrics().get(newName),
+                   is(sameInstance((Metric) histogram)));
+
+        verify(listener).onMetricAdded(newName, histogram);
+    }
+
+    @Test
+    public void deliversListenerEventsInOrderOnTheListenerExecutor() throws Exception {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        registry.setListenerExecutor(tasks::add);
+        final MetricsRegistryListener listener = mock(MetricsRegistryListener.class);
+        registry.addListener(listener);
+        final MetricName first = new MetricName(Object.class, "first");
+        final MetricName second = new MetricName(Object.class, "second");
+        final MetricName dropped = new MetricName(Object.class, "dropped");
+
+        final Counter firstCounter = registry.newCounter(first);
+        registry.newCounter(dropped);
+        registry.removeMetric(dropped);
+        final Counter secondCounter = registry.newCounter(second);
+
+        verifyZeroInteractions(listener);
+
+        assertThat("one task delivers the whole batch",
+                   tasks.size(),
+                   is(1));
+
+        tasks.get(0).run();
+
+        final InOrder inOrder = inOrder(listener);
+        inOrder.verify(listener).onMetricAdded(first, firstCounter);
+        inOrder.verify(listener).onMetricAdded(second, secondCounter);
+        verifyNoMoreInteractions(listener);
+    }
+
+    @Test
+    public void listenersAddedWhileEventsAreQueuedGetEachMetricOnce() throws Exception {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        registry.setListenerExecutor(tasks::add);
+        final MetricName name = new MetricName(Object.class, "queued");
+        final Counter counter = registry.newCounter(name);
+        final MetricsRegistryListener listener = mock(MetricsRegistryListener.class);
+
+        registry.addListener(listener);
+        for (Runnable task : tasks) {
+            task.run();
+        }
+
+        verify(listener).onMetricAdded(name, counter);
+        verifyNoMoreInteractions(listener);
+    }
+
+    @Test
+    public void listenersSeeARemovalBeforeTheAdditionWhichReplacesIt() throws Exception {
+        final MetricName name = new MetricName(Object.class, "replaced");
+        final ReAddingRegistry reAdding = new ReAddingRegistry();
+        try {
+            final MetricsRegistryListener listener = mock(MetricsRegistryListener.class);
+            reAdding.addListener(listener);
+            final Counter removed = reAdding.newCounter(name);
+            reAdding.reAdd = name;
+
+            reAdding.removeMetric(name);
+
+            final InOrder inOrder = inOrder(listener);
+            inOrder.verify(listener).onMetricAdded(name, removed);
+            inOrder.verify(listener).onMetricRemoved(name);
+            inOrder.verify(listener).onMetricAdded(name, reAdding.allMetrics().get(name));
+            verifyNoMoreInteractions(listener);
+        } finally {
+            reAdding.shutdown();
+        }
+    }
+
+    @Test
+    public void childRegistriesScopeTheirMetricsAndReportThemThroughTheParent() throws Exception {
+        final MetricsRegistry first = registry.newChild("first");
+        final MetricsRegistry second = registry.newChild("second");
+        final Counter one = first.newCounter(Object.class, "requests");
+        final Counter two = second.newCounter(Object.class, "requests", "scoped");
+
+        assertThat(one,
+                   is(not(sameInstance(two))));
+
+        assertThat(registry.allMetrics().get(new MetricName(Object.class, "requests", "first")),
+                   is(sameInstance((Metric) one)));
+
+        assertThat(registry.groupedMetrics().get("java.lang.Object.second.scoped").values(),
+                   hasItem((Metric) two));
+
+        assertThat(registry.groupedMetrics(new MetricQuery("java.lang.Object.first")).size(),
+                   is(1));
+
+        assertThat(registry.snapshot().counters().size(),
+                   is(2));
+    }
+
+    @Test
+    public void groupsSharedWithChildrenAreMergedAsTheyreRead() throws Exception {
+        final MetricsRegistry child = registry.newChild("child");
+        final Counter parents = registry.newCounter(new MetricName(Object.class, "b", "child"));
+        final Counter childs = child.newCounter(Object.class, "c");
+        final SortedMap<String, SortedMap<MetricName, Metric>> grouped = registry.groupedMetrics();
+        final Counter later = child.newCounter(Object.class, "a");
+
+        assertThat(new ArrayList<String>(grouped.keySet()),
+                   is(Collections.singletonList("java.lang.Object.child")));
+
+        assertThat(new ArrayList<Metric>(grouped.get("java.lang.Object.child").values()),
+                   is(Arrays.<Metric>asList(later, parents, childs)));
+    }
+
+    @Test
+    public void childRegistriesCanBeTagged() throws Exception {
+        final MetricsRegistry tenant = registry.newChild(Collections.singletonMap("tenant", "acme"));
+        final Counter counter = tenant.newCounter(Object.class, "requests");
+
+        assertThat(registry.groupedMetrics(new MetricQuery(Collections.singletonMap("tenant", "acme")))
+                           .get("java.lang.Object").values(),
+                   hasItem((Metric) counter));
+    }
+
+    @Test
+    public void shuttingDownAChildDetachesAllItsMetrics() throws Exception {
+        final MetricsRegistryListener listener = mock(MetricsRegistryListener.class);
+        registry.addListener(listener);
+        final MetricsRegistry child = registry.newChild("child");
+        final MetricName name = new MetricName(Object.class, "requests", "child");
+        final Counter counter = child.newCounter(Object.class, "requests");
+
+        verify(listener).onMetricAdded(name, counter);
+
+        child.shutdown();
+
+        assertThat(registry.allMetrics().isEmpty(),
+                   is(true));
+
+        verify(listener).onMetricRemoved(name);
+
+        assertThat("the parent's thread pools keep running",
+                   registry.newMeter(Object.class, "meter", "things", TimeUnit.SECONDS),
+                   is(notNullValue()));
+    }
+
+    @Test
+    public void childMetricsDontShadowTheirParents() throws Exception {
+        final MetricName name = new MetricName(Object.class, "requests");
+        final Counter counter = registry.newCounter(name);
+        final MetricsRegistry child = registry.newChild("child");
+
+        assertThat(child.newCounter(name),
+                   is(sameInstance(counter)));
+
+        assertThat(registry.allMetrics().get(name),
+                   is(sameInstance((Metric) counter)));
+
+        assertThat(child.allMetrics().isEmpty(),
+                   is(true));
+    }
+
+    @Test
+    public void childMetricsCountTowardsTheParentsLimits() throws Exception {
+        registry.setMaxMetrics(2);
+        final MetricsRegistry child = registry.newChild("child");
+        registry.newCounter(Object.class, "first");
+        child.newCounter(Object.class, "second");
+        child.newCounter(Object.class, "third");
+
+        assertThat(registry.allMetrics().containsKey(new MetricName(Object.class, "third", "child")),
+                   is(false));
+
+        assertThat(((Counter) registry.allMetrics().get(new MetricName(MetricsRegistry.class, "rejected-metrics"))).count(),
+                   is(1L));
+    }
+
+    @Test
+    public void shuttingDownAChildRemovesItsMetricsAndInvalidatesTheirHandles() throws Exception {
+        final MetricsRegistry child = registry.newChild("child");
+        final MetricName name = new MetricName(Object.class, "requests");
+        final MetricHandle<Counter> handle = child.newHandle(name, child::newCounter);
+        final Counter counter = handle.get();
+
+        child.shutdown();
+
+        assertThat(child.allMetrics().isEmpty(),
+                   is(true));
+
+        assertThat(handle.get(),
+                   is(not(sameInstance(counter))));
+    }
+
+    private static class ManualClock extends Clock {
+        private long ticks;
+
+        @Override
+        public long tick() {
+            return ticks;
+        }
+    }
+
+    // re-adds a metric as soon as it has been taken out of the metrics map, before the registry
+    // has finished removing it
+    private static class ReAddingRegistry extends MetricsRegistry {
+        private volatile MetricName reAdd;
+
+        @Override
+        protected ConcurrentMap<MetricName, Metric> newMetricsMap() {
+            return new ConcurrentHashMap<MetricName, Metric>() {
+                @Override
+                public Metric computeIfPresent(MetricName key,
+                                               BiFunction<? super MetricName, ? super Metric, ? extends Metric> remapping) {
+                    final Metric remapped = super.computeIfPresent(key, remapping);
+                    if (key.equals(reAdd)) {
+                        reAdd = null;
+                        newCounter(key);
+                    }
+                    return remapped;
+                }
+            };
+        }
+    }
 }
@@ -0,0 +1,116 @@
+package com.yammer.metrics.core.tests;
+
+import com.yammer.metrics.core.MetricsScheduler;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.*;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class MetricsSchedulerTest {
+    private final MetricsScheduler scheduler = MetricsScheduler.shared(2);
+
+    @After
+    public void tearDown() throws Exception {
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void returnsTheSamePoolForTheSameName() throws Exception {
+        assertThat(scheduler.newScheduledThreadPool(1, "one"),
+                   is(sameInstance(scheduler.newScheduledThreadPool(1, "one"))));
+
+        assertThat(scheduler.newScheduledThreadPool(1, "one"),
+                   is(not(sameInstance(scheduler.newScheduledThreadPool(1, "two")))));
+    }
+
+    @Test
+    public void runsEveryNamesTasksOnTheSharedWorkers() throws Exception {
+        final Set<String> threads = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        final CountDownLatch runs = new CountDownLatch(20);
+        for (int i = 0; i < 10; i++) {
+            scheduler.newScheduledThreadPool(1, "pool-" + i).scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    threads.add(Thread.currentThread().getName());
+                    runs.countDown();
+                }
+            }, 0, 1, TimeUnit.MILLISECONDS);
+        }
+
+        assertThat(runs.await(5, TimeUnit.SECONDS),
+                   is(true));
+
+        assertThat(threads.size(),
+                   is(lessThanOrEqualTo(2)));
+    }
+
+    @Test
+    public void shuttingDownOnePoolLeavesTheOthersRunning() throws Exception {
+        final ScheduledExecutorService stopped = scheduler.newScheduledThreadPool(1, "stopped");
+        final ScheduledExecutorService running = scheduler.newScheduledThreadPool(1, "running");
+        final ScheduledFuture<?> stoppedTask = stopped.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, 1, 1, TimeUnit.MILLISECONDS);
+
+        stopped.shutdown();
+
+        assertThat(stopped.awaitTermination(5, TimeUnit.SECONDS),
+                   is(true));
+
+        assertThat(stoppedTask.isCancelled(),
+                   is(true));
+
+        assertThat(running.schedule(new Callable<String>() {
+                       @Override
+                       public String call() throws Exception {
+                           return "ran";
+                       }
+                   }, 1, TimeUnit.MILLISECONDS).get(5, TimeUnit.SECONDS),
+                   is("ran"));
+
+        assertThat("a shut down pool is replaced",
+                   scheduler.newScheduledThreadPool(1, "stopped").isShutdown(),
+                   is(false));
+    }
+
+    @Test
+    public void startsNewThreadsForPoolsRequestedAfterShutdown() throws Exception {
+        scheduler.newScheduledThreadPool(1, "before");
+        scheduler.shutdown();
+
+        assertThat(scheduler.newScheduledThreadPool(1, "after").schedule(new Callable<String>() {
+                       @Override
+                       public String call() throws Exception {
+                           return "ran";
+                       }
+                   }, 1, TimeUnit.MILLISECONDS).get(5, TimeUnit.SECONDS),
+                   is("ran"));
+    }
+
+    @Test
+    public void stopsRunningAPeriodicTaskWhichFails() throws Exception {
+        final ScheduledFuture<?> future = scheduler.newScheduledThreadPool(1, "failing").scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("boom");
+            }
+        }, 0, 1, TimeUnit.MILLISECONDS);
+
+        try {
+            future.get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(),
+                       is(instanceOf(IllegalStateException.class)));
+        }
+
+        assertThat(future.isDone(),
+                   is(true));
+    }
+}
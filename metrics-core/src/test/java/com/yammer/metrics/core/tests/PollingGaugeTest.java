@@ -0,0 +1,195 @@
+package com.yammer.metrics.core.tests;
+
+import com.yammer.metrics.core.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class PollingGaugeTest {
+    private MetricsRegistry registry;
+
+    @Before
+    public void setUp() throws Exception {
+        this.registry = new MetricsRegistry();
+        registry.setGaugePollParallelism(2);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        registry.shutdown();
+    }
+
+    @Test
+    public void pollsGaugesIntoTheirHistograms() throws Exception {
+        final Histogram histogram = registry.newPollingLongGauge(new MetricName(PollingGaugeTest.class, "gauge"),
+                                                                 new Gauge<Long>() {
+                                                                     @Override
+                                                                     public Long value() {
+                                                                         return 42L;
+                                                                     }
+                                                                 },
+                                                                 5,
+                                                                 TimeUnit.MILLISECONDS);
+
+        awaitCount(histogram, 3);
+
+        assertThat(histogram.max(),
+                   is(42.0));
+
+        assertThat(pollerTimer("duration").count(),
+                   is(greaterThan(0L)));
+
+        assertThat(pollerTimer("drift").count(),
+                   is(greaterThan(0L)));
+    }
+
+    @Test
+    public void countsGaugesWhichFailWithoutStoppingTheirGroup() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            registry.newPollingIntegerGauge(new MetricName(PollingGaugeTest.class, "failing-" + i),
+                                            new Gauge<Integer>() {
+                                                @Override
+                                                public Integer value() {
+                                                    throw new IllegalStateException("boom");
+                                                }
+                                            },
+                                            5,
+                                            TimeUnit.MILLISECONDS);
+        }
+        final Histogram working = registry.newPollingIntegerGauge(new MetricName(PollingGaugeTest.class, "working"),
+                                                                  new Gauge<Integer>() {
+                                                                      @Override
+                                                                      public Integer value() {
+                                                                          return 1;
+                                                                      }
+                                                                  },
+                                                                  5,
+                                                                  TimeUnit.MILLISECONDS);
+
+        awaitCount(working, 3);
+
+        final Counter failures = (Counter) registry.allMetrics().get(new MetricName("com.yammer.metrics.core", "GaugePoller", "failures"));
+        assertThat(failures.count(),
+                   is(greaterThanOrEqualTo(20L)));
+    }
+
+    @Test
+    public void stopsPollingRemovedGauges() throws Exception {
+        final MetricName name = new MetricName(PollingGaugeTest.class, "removed");
+        final Histogram histogram = registry.newPollingIntegerGauge(name,
+                                                                    new Gauge<Integer>() {
+                                                                        @Override
+                                                                        public Integer value() {
+                                                                            return 1;
+                                                                        }
+                                                                    },
+                                                                    5,
+                                                                    TimeUnit.MILLISECONDS);
+        awaitCount(histogram, 1);
+
+        registry.removeMetric(name);
+        final long count = histogram.count();
+        Thread.sleep(50);
+
+        assertThat(histogram.count(),
+                   is(lessThanOrEqualTo(count + 1)));
+    }
+
+    @Test
+    public void stopsPollingGroupsWithoutGauges() throws Exception {
+        final MetricName name = new MetricName(PollingGaugeTest.class, "only");
+        final Histogram histogram = registry.newPollingIntegerGauge(name,
+                                                                    new Gauge<Integer>() {
+                                                                        @Override
+                                                                        public Integer value() {
+                                                                            return 1;
+                                                                        }
+                                                                    },
+                                                                    5,
+                                                                    TimeUnit.MILLISECONDS);
+        awaitCount(histogram, 1);
+
+        registry.removeMetric(name);
+        final long polls = pollerTimer("duration").count();
+        Thread.sleep(50);
+
+        assertThat(pollerTimer("duration").count(),
+                   is(lessThanOrEqualTo(polls + 1)));
+    }
+
+    @Test
+    public void pollsGaugesAddedAfterTheRegistryIsShutDown() throws Exception {
+        final Gauge<Integer> gauge = new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return 1;
+            }
+        };
+        registry.newPollingIntegerGauge(new MetricName(PollingGaugeTest.class, "before"), gauge, 5, TimeUnit.MILLISECONDS);
+
+        registry.shutdown();
+        final Histogram after = registry.newPollingIntegerGauge(new MetricName(PollingGaugeTest.class, "after"),
+                                                                gauge,
+                                                                5,
+                                                                TimeUnit.MILLISECONDS);
+
+        awaitCount(after, 1);
+    }
+
+    @Test
+    public void addsPollingThreadsWhenTheParallelismIsRaisedLater() throws Exception {
+        registry.newPollingIntegerGauge(new MetricName(PollingGaugeTest.class, "first"),
+                                        new Gauge<Integer>() {
+                                            @Override
+                                            public Integer value() {
+                                                return 1;
+                                            }
+                                        },
+                                        1,
+                                        TimeUnit.HOURS);
+        registry.setGaugePollParallelism(3);
+
+        // each gauge waits for the other two, so a poll only succeeds if all three run at once
+        final CyclicBarrier barrier = new CyclicBarrier(3);
+        final Gauge<Integer> gauge = new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                try {
+                    barrier.await(1, TimeUnit.SECONDS);
+                    return 1;
+                } catch (Exception e) {
+                    barrier.reset();
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+        Histogram histogram = null;
+        for (int i = 0; i < 3; i++) {
+            histogram = registry.newPollingIntegerGauge(new MetricName(PollingGaugeTest.class, "parallel-" + i),
+                                                        gauge,
+                                                        5,
+                                                        TimeUnit.MILLISECONDS);
+        }
+
+        awaitCount(histogram, 1);
+    }
+
+    private Timer pollerTimer(String name) {
+        return (Timer) registry.allMetrics().get(new MetricName("com.yammer.metrics.core", "GaugePoller", name));
+    }
+
+    private static void awaitCount(Histogram histogram, long count) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (histogram.count() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertThat(histogram.count(),
+                   is(greaterThanOrEqualTo(count)));
+    }
+}
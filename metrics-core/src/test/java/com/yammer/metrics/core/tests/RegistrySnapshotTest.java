@@ -0,0 +1,126 @@
+package com.yammer.metrics.core.tests;
+
+import com.yammer.metrics.core.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class RegistrySnapshotTest {
+    private MetricsRegistry registry;
+
+    @Before
+    public void setUp() throws Exception {
+        this.registry = new MetricsRegistry();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        registry.shutdown();
+    }
+
+    @Test
+    public void capturesEveryKindOfMetric() throws Exception {
+        registry.newCounter(RegistrySnapshotTest.class, "counter").inc(3);
+        registry.newMeter(RegistrySnapshotTest.class, "meter", "things", TimeUnit.SECONDS).mark(2);
+        registry.newHistogram(RegistrySnapshotTest.class, "histogram").update(10);
+        registry.newTimer(RegistrySnapshotTest.class, "timer").update(5, TimeUnit.MILLISECONDS);
+        registry.newGauge(RegistrySnapshotTest.class, "gauge", new Gauge<String>() {
+            @Override
+            public String value() {
+                return "value";
+            }
+        });
+
+        final RegistrySnapshot snapshot = registry.snapshot();
+
+        assertThat(snapshot.size(),
+                   is(5));
+
+        assertThat(snapshot.counters().name(0),
+                   is(new MetricName(RegistrySnapshotTest.class, "counter")));
+
+        assertThat(snapshot.counters().count(0),
+                   is(3L));
+
+        assertThat(snapshot.meters().count(0),
+                   is(2L));
+
+        assertThat(snapshot.meters().eventType(0),
+                   is("things"));
+
+        assertThat(snapshot.histograms().max(0),
+                   is(10.0));
+
+        assertThat(snapshot.timerRates().count(0),
+                   is(1L));
+
+        assertThat(snapshot.timerDurations().count(0),
+                   is(1L));
+
+        assertThat(snapshot.timerDurations().max(0),
+                   is(closeTo(5.0, 0.001)));
+
+        assertThat(snapshot.timerDurations().durationUnit(0),
+                   is(TimeUnit.MILLISECONDS));
+
+        assertThat(snapshot.gauges().value(0),
+                   is((Object) "value"));
+    }
+
+    @Test
+    public void sharesASortedNameTable() throws Exception {
+        registry.newCounter(RegistrySnapshotTest.class, "b");
+        registry.newCounter(RegistrySnapshotTest.class, "a");
+        registry.newMeter(RegistrySnapshotTest.class, "c", "things", TimeUnit.SECONDS);
+
+        final RegistrySnapshot snapshot = registry.snapshot();
+
+        assertThat(snapshot.name(0).getName(),
+                   is("a"));
+
+        assertThat(snapshot.counters().nameIndex(1),
+                   is(1));
+
+        assertThat(snapshot.meters().name(0),
+                   is(sameInstance(snapshot.name(snapshot.meters().nameIndex(0)))));
+    }
+
+    @Test
+    public void isNotAffectedByLaterUpdates() throws Exception {
+        final Counter counter = registry.newCounter(RegistrySnapshotTest.class, "counter");
+        counter.inc();
+
+        final RegistrySnapshot snapshot = registry.snapshot();
+        counter.inc();
+
+        assertThat(snapshot.counters().count(0),
+                   is(1L));
+    }
+
+    @Test
+    public void leavesOutGaugesWhichThrow() throws Exception {
+        registry.newGauge(RegistrySnapshotTest.class, "a-gauge", new Gauge<String>() {
+            @Override
+            public String value() {
+                throw new IllegalStateException("boom");
+            }
+        });
+        registry.newCounter(RegistrySnapshotTest.class, "counter");
+
+        final RegistrySnapshot snapshot = registry.snapshot();
+
+        assertThat(snapshot.size(),
+                   is(1));
+
+        assertThat(snapshot.gauges().size(),
+                   is(0));
+
+        assertThat(snapshot.counters().name(0),
+                   is(new MetricName(RegistrySnapshotTest.class, "counter")));
+    }
+}
@@ -1,14 +1,18 @@
 package com.yammer.metrics.core.tests;
 
 import com.yammer.metrics.core.Clock;
+import com.yammer.metrics.core.MetricName;
 import com.yammer.metrics.core.MetricsRegistry;
+import com.yammer.metrics.core.SamplingPolicy;
 import com.yammer.metrics.core.Timer;
+import com.yammer.metrics.core.TimerContext;
 import com.yammer.metrics.stats.Snapshot;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 import static org.hamcrest.Matchers.*;
@@ -199,4 +203,172 @@ public class TimerTest {
                    timer.max(),
                    is(closeTo(50.0, 0.001)));
     }
+
+    @Test
+    public void timingWithAStartTime() throws Exception {
+        final long startTime = timer.start();
+
+        assertThat("returns the duration of the event",
+                   timer.stop(startTime),
+                   is(50000000L));
+
+        assertThat("the timer has a count of 1",
+                   timer.count(),
+                   is(1L));
+
+        assertThat("records the duration of the event",
+                   timer.max(),
+                   is(closeTo(50.0, 0.001)));
+    }
+
+    @Test
+    public void reusesThreadConfinedContexts() throws Exception {
+        final TimerContext first = timer.timeConfined();
+        first.stop();
+
+        final TimerContext second = timer.timeConfined();
+
+        assertThat("a stopped context is reused",
+                   second,
+                   is(sameInstance(first)));
+
+        final TimerContext nested = timer.timeConfined();
+
+        assertThat("a nested context is distinct",
+                   nested,
+                   is(not(sameInstance(second))));
+
+        nested.stop();
+        second.stop();
+
+        assertThat("the timer has a count of 3",
+                   timer.count(),
+                   is(3L));
+
+        assertThat("records the duration of the nested context",
+                   timer.min(),
+                   is(closeTo(50.0, 0.001)));
+
+        assertThat("records the duration of the outer context",
+                   timer.max(),
+                   is(closeTo(150.0, 0.001)));
+    }
+
+    @Test
+    public void samplingTimersCountEveryCall() throws Exception {
+        final Timer sampled = registry.newTimer(new MetricName(TimerTest.class, "sampled"),
+                                                TimeUnit.MILLISECONDS,
+                                                TimeUnit.SECONDS,
+                                                SamplingPolicy.oneIn(10));
+        int timed = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (sampled.stop(sampled.start()) >= 0) {
+                timed++;
+            }
+        }
+
+        assertThat("roughly one in ten calls is timed",
+                   timed,
+                   is(allOf(greaterThan(700), lessThan(1300))));
+
+        assertThat("every call is counted",
+                   sampled.count(),
+                   is(10000L));
+
+        assertThat("the durations are estimated from the timed calls",
+                   sampled.mean(),
+                   is(closeTo(50.0, 0.001)));
+
+        assertThat("the sum is extrapolated to every call",
+                   sampled.sum(),
+                   is(closeTo(500000.0, 0.001)));
+
+        sampled.clear();
+
+        assertThat(sampled.count(),
+                   is(0L));
+    }
+
+    @Test
+    public void timingAsynchronousEvents() throws Exception {
+        final CompletableFuture<String> future = new CompletableFuture<String>();
+
+        assertThat("returns the stage returned by the supplier",
+                   timer.timeAsync(() -> future),
+                   is(sameInstance(future)));
+
+        assertThat("the event isn't recorded until the stage completes",
+                   timer.count(),
+                   is(0L));
+
+        future.completeExceptionally(new IllegalStateException());
+
+        assertThat("the timer has a count of 1",
+                   timer.count(),
+                   is(1L));
+
+        assertThat("records the duration until the stage completed",
+                   timer.max(),
+                   is(closeTo(50.0, 0.001)));
+    }
+
+    @Test
+    public void timingQueueingAndExecutionSeparately() throws Exception {
+        final Timer queueTimer = registry.newTimer(TimerTest.class, "queue");
+        final CompletableFuture<String> result = timer.timeAsync(Runnable::run, () -> "one", queueTimer);
+
+        assertThat(result.get(),
+                   is("one"));
+
+        assertThat("records the time spent waiting to run",
+                   queueTimer.count(),
+                   is(1L));
+
+        assertThat("records the time spent running",
+                   timer.count(),
+                   is(1L));
+    }
+
+    @Test
+    public void trackingInFlightCalls() throws Exception {
+        final MetricName name = new MetricName(TimerTest.class, "tracked");
+        final Timer tracked = registry.newTimer(name,
+                                                TimeUnit.MILLISECONDS,
+                                                TimeUnit.SECONDS,
+                                                SamplingPolicy.always(),
+                                                true);
+
+        final long first = tracked.start();
+        final TimerContext second = tracked.time();
+        final long third = tracked.start();
+
+        assertThat(tracked.inFlight().longValue(),
+                   is(3L));
+
+        tracked.stop(third);
+        second.stop();
+
+        assertThat(tracked.inFlight().longValue(),
+                   is(1L));
+
+        assertThat("reports the peak since the last read",
+                   tracked.peakInFlight().longValue(),
+                   is(3L));
+
+        assertThat("the peak restarts from the current in-flight count",
+                   tracked.peakInFlight().longValue(),
+                   is(1L));
+
+        tracked.stop(first);
+
+        assertThat("registers the in-flight gauge next to the timer",
+                   registry.allMetrics().get(new MetricName(TimerTest.class, "tracked-in-flight")),
+                   is(sameInstance((Object) tracked.inFlight())));
+    }
+
+    @Test
+    public void doesNotTrackInFlightCallsByDefault() throws Exception {
+        assertThat(timer.inFlight(),
+                   is(nullValue()));
+    }
 }
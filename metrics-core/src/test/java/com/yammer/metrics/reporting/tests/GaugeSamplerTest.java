@@ -0,0 +1,170 @@
+package com.yammer.metrics.reporting.tests;
+
+import com.yammer.metrics.core.*;
+import com.yammer.metrics.reporting.GaugeSampler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class GaugeSamplerTest {
+    private final MetricName fastName = new MetricName(GaugeSamplerTest.class, "fast");
+    private final MetricName slowName = new MetricName(GaugeSamplerTest.class, "slow");
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicBoolean wedged = new AtomicBoolean();
+    private final Map<MetricName, Metric> metrics = new HashMap<MetricName, Metric>();
+    private MetricsRegistry registry;
+    private GaugeSampler sampler;
+
+    @Before
+    public void setUp() throws Exception {
+        this.registry = new MetricsRegistry();
+        this.sampler = new GaugeSampler(registry, "test-gauge-sampler", 2, 100, TimeUnit.MILLISECONDS);
+        metrics.put(fastName, new LongGauge() {
+            @Override
+            public long longValue() {
+                return 1;
+            }
+        });
+        metrics.put(slowName, new Gauge<String>() {
+            @Override
+            public String value() {
+                if (wedged.get()) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException ignored) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return "late";
+                }
+                return "ok";
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        release.countDown();
+        registry.shutdown();
+    }
+
+    @Test
+    public void samplesAllGauges() throws Exception {
+        final Map<MetricName, Gauge<?>> sampled = sampler.sample(metrics);
+
+        assertThat(sampled.get(fastName),
+                   is(instanceOf(LongGauge.class)));
+
+        assertThat(((LongGauge) sampled.get(fastName)).longValue(),
+                   is(1L));
+
+        assertThat(sampled.get(slowName).value(),
+                   is((Object) "ok"));
+
+        assertThat(sampler.timeouts().count(),
+                   is(0L));
+    }
+
+    @Test
+    public void reportsTheLastKnownValueOfGaugesWhichTimeOut() throws Exception {
+        sampler.sample(metrics);
+        wedged.set(true);
+
+        final Map<MetricName, Gauge<?>> sampled = sampler.sample(metrics);
+
+        assertThat(sampled.get(slowName).value(),
+                   is((Object) "ok"));
+
+        assertThat(((LongGauge) sampled.get(fastName)).longValue(),
+                   is(1L));
+
+        assertThat(sampler.timeouts().count(),
+                   is(1L));
+    }
+
+    @Test
+    public void skipsGaugesWhichTimeOutWithoutAPreviousValue() throws Exception {
+        wedged.set(true);
+
+        final Map<MetricName, Gauge<?>> sampled = sampler.sample(metrics);
+
+        assertThat(sampled.containsKey(slowName),
+                   is(false));
+
+        assertThat(sampled.containsKey(fastName),
+                   is(true));
+    }
+
+    @Test
+    public void givesUpOnGaugesWhichNeverStart() throws Exception {
+        final MetricsRegistry shared = new MetricsRegistry(Clock.defaultClock(), MetricsScheduler.shared(1));
+        try {
+            final GaugeSampler starved = new GaugeSampler(shared, "starved", 4, 50, TimeUnit.MILLISECONDS);
+            // the reporting task holds the only worker, so the gauges can't start
+            final Future<Map<MetricName, Gauge<?>>> sampled =
+                    shared.newScheduledThreadPool(1, "reporter").submit(new Callable<Map<MetricName, Gauge<?>>>() {
+                        @Override
+                        public Map<MetricName, Gauge<?>> call() throws Exception {
+                            return starved.sample(metrics);
+                        }
+                    });
+
+            assertThat(sampled.get(5, TimeUnit.SECONDS).isEmpty(),
+                       is(true));
+
+            assertThat(starved.timeouts().count(),
+                       is(2L));
+        } finally {
+            shared.shutdown();
+        }
+    }
+
+    @Test
+    public void givesQueuedGaugesTheirWholeTimeout() throws Exception {
+        wedged.set(true);
+        // the slow gauge holds one thread, so the sleepy gauges run one after the other and the
+        // second one finishes after the first gauge's timeout
+        final Map<MetricName, Metric> queued = new LinkedHashMap<MetricName, Metric>();
+        queued.put(slowName, metrics.get(slowName));
+        final MetricName first = new MetricName(GaugeSamplerTest.class, "sleepy-1");
+        final MetricName second = new MetricName(GaugeSamplerTest.class, "sleepy-2");
+        queued.put(first, sleepy());
+        queued.put(second, sleepy());
+
+        final Map<MetricName, Gauge<?>> sampled = sampler.sample(queued);
+
+        assertThat(sampled.get(first).value(),
+                   is((Object) "rested"));
+
+        assertThat(sampled.get(second).value(),
+                   is((Object) "rested"));
+
+        assertThat(sampler.timeouts().count(),
+                   is(1L));
+    }
+
+    private static Gauge<String> sleepy() {
+        return new Gauge<String>() {
+            @Override
+            public String value() {
+                try {
+                    Thread.sleep(70);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return "rested";
+            }
+        };
+    }
+}
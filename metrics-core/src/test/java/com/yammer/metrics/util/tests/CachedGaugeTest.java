@@ -0,0 +1,115 @@
+package com.yammer.metrics.util.tests;
+
+import com.yammer.metrics.core.Clock;
+import com.yammer.metrics.util.CachedGauge;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class CachedGaugeTest {
+    private final AtomicInteger loads = new AtomicInteger();
+    private final ManualClock clock = new ManualClock();
+    private final List<Runnable> refreshes = new ArrayList<Runnable>();
+    private final Executor executor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            refreshes.add(command);
+        }
+    };
+
+    @Test
+    public void recomputesTheValueOncePerTimeout() throws Exception {
+        final CachedGauge<Integer> gauge = new CachedGauge<Integer>(clock, 10, TimeUnit.NANOSECONDS) {
+            @Override
+            protected Integer loadValue() {
+                return loads.incrementAndGet();
+            }
+        };
+
+        assertThat(gauge.value(),
+                   is(1));
+
+        clock.ticks = 9;
+
+        assertThat(gauge.value(),
+                   is(1));
+
+        clock.ticks = 10;
+
+        assertThat(gauge.value(),
+                   is(2));
+
+        assertThat(gauge.value(),
+                   is(2));
+    }
+
+    @Test
+    public void servesTheLastValueWhileRefreshingAsynchronously() throws Exception {
+        final CachedGauge<Integer> gauge = new CachedGauge<Integer>(clock, 10, TimeUnit.NANOSECONDS, executor) {
+            @Override
+            protected Integer loadValue() {
+                return loads.incrementAndGet();
+            }
+        };
+
+        assertThat("the first value is computed inline",
+                   gauge.value(),
+                   is(1));
+
+        clock.ticks = 20;
+
+        assertThat(gauge.value(),
+                   is(1));
+
+        clock.ticks = 40;
+
+        assertThat(gauge.value(),
+                   is(1));
+
+        assertThat("only one refresh is in flight at a time",
+                   refreshes.size(),
+                   is(1));
+
+        refreshes.get(0).run();
+
+        assertThat(gauge.value(),
+                   is(2));
+    }
+
+    @Test
+    public void keepsTheLastValueIfAnAsynchronousRefreshFails() throws Exception {
+        final CachedGauge<Integer> gauge = new CachedGauge<Integer>(clock, 10, TimeUnit.NANOSECONDS, executor) {
+            @Override
+            protected Integer loadValue() {
+                if (loads.incrementAndGet() > 1) {
+                    throw new IllegalStateException("wedged");
+                }
+                return 1;
+            }
+        };
+
+        gauge.value();
+        clock.ticks = 20;
+        gauge.value();
+        refreshes.get(0).run();
+
+        assertThat(gauge.value(),
+                   is(1));
+    }
+
+    private static class ManualClock extends Clock {
+        private long ticks;
+
+        @Override
+        public long tick() {
+            return ticks;
+        }
+    }
+}
@@ -12,15 +12,15 @@ public class ToggleGaugeTest {
     @Test
     public void returnsOneThenZero() throws Exception {
         assertThat(toggle.value(),
-                   is(1));
+                   is(1L));
 
         assertThat(toggle.value(),
-                   is(0));
+                   is(0L));
 
         assertThat(toggle.value(),
-                   is(0));
+                   is(0L));
 
         assertThat(toggle.value(),
-                   is(0));
+                   is(0L));
     }
 }
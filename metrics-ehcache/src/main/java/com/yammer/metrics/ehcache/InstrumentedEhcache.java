@@ -2,6 +2,7 @@ package com.yammer.metrics.ehcache;
 
 import com.yammer.metrics.Metrics;
 import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.MetricsRegistry;
 import com.yammer.metrics.core.Timer;
 import com.yammer.metrics.core.TimerContext;
 import net.sf.ehcache.CacheException;
@@ -113,145 +114,158 @@ public class InstrumentedEhcache extends EhcacheDecoratorAdapter {
      * @return an instrumented decorator for {@code cache}
      * @see Statistics
      */
-    public static Ehcache instrument(final Ehcache cache) {
+    public static Ehcache instrument(Ehcache cache) {
+        return instrument(cache, Metrics.defaultRegistry());
+    }
+
+    /**
+     * Instruments the given {@link Ehcache} instance, registering its metrics with the given
+     * registry.
+     *
+     * @param cache    an {@link Ehcache} instance
+     * @param registry the registry for the metrics
+     * @return an instrumented decorator for {@code cache}
+     * @see #instrument(Ehcache)
+     */
+    public static Ehcache instrument(final Ehcache cache, MetricsRegistry registry) {
         cache.setSampledStatisticsEnabled(true);
         cache.setStatisticsAccuracy(Statistics.STATISTICS_ACCURACY_NONE);
 
-        Metrics.newGauge(cache.getClass(), "hits", cache.getName(), new Gauge<Long>() {
+        registry.newGauge(cache.getClass(), "hits", cache.getName(), new Gauge<Long>() {
             @Override
             public Long value() {
                 return cache.getStatistics().getCacheHits();
             }
         });
 
-        Metrics.newGauge(cache.getClass(), "in-memory-hits", cache.getName(), new Gauge<Long>() {
+        registry.newGauge(cache.getClass(), "in-memory-hits", cache.getName(), new Gauge<Long>() {
             @Override
             public Long value() {
                 return cache.getStatistics().getInMemoryHits();
             }
         });
 
-        Metrics.newGauge(cache.getClass(), "off-heap-hits", cache.getName(), new Gauge<Long>() {
+        registry.newGauge(cache.getClass(), "off-heap-hits", cache.getName(), new Gauge<Long>() {
             @Override
             public Long value() {
                 return cache.getStatistics().getOffHeapHits();
             }
         });
 
-        Metrics.newGauge(cache.getClass(), "on-disk-hits", cache.getName(), new Gauge<Long>() {
+        registry.newGauge(cache.getClass(), "on-disk-hits", cache.getName(), new Gauge<Long>() {
             @Override
             public Long value() {
                 return cache.getStatistics().getOnDiskHits();
             }
         });
 
-        Metrics.newGauge(cache.getClass(), "misses", cache.getName(), new Gauge<Long>() {
+        registry.newGauge(cache.getClass(), "misses", cache.getName(), new Gauge<Long>() {
             @Override
             public Long value() {
                 return cache.getStatistics().getCacheMisses();
             }
         });
 
-        Metrics.newGauge(cache.getClass(), "in-memory-misses", cache.getName(), new Gauge<Long>() {
+        registry.newGauge(cache.getClass(), "in-memory-misses", cache.getName(), new Gauge<Long>() {
             @Override
             public Long value() {
                 return cache.getStatistics().getInMemoryMisses();
             }
         });
 
-        Metrics.newGauge(cache.getClass(), "off-heap-misses", cache.getName(), new Gauge<Long>() {
+        registry.newGauge(cache.getClass(), "off-heap-misses", cache.getName(), new Gauge<Long>() {
             @Override
             public Long value() {
                 return cache.getStatistics().getOffHeapMisses();
             }
         });
 
-        Metrics.newGauge(cache.getClass(), "on-disk-misses", cache.getName(), new Gauge<Long>() {
+        registry.newGauge(cache.getClass(), "on-disk-misses", cache.getName(), new Gauge<Long>() {
             @Override
             public Long value() {
                 return cache.getStatistics().getOnDiskMisses();
             }
         });
 
-        Metrics.newGauge(cache.getClass(), "objects", cache.getName(), new Gauge<Long>() {
+        registry.newGauge(cache.getClass(), "objects", cache.getName(), new Gauge<Long>() {
             @Override
             public Long value() {
                 return cache.getStatistics().getObjectCount();
             }
         });
 
-        Metrics.newGauge(cache.getClass(), "in-memory-objects", cache.getName(), new Gauge<Long>() {
+        registry.newGauge(cache.getClass(), "in-memory-objects", cache.getName(), new Gauge<Long>() {
             @Override
             public Long value() {
                 return cache.getStatistics().getMemoryStoreObjectCount();
             }
         });
 
-        Metrics.newGauge(cache.getClass(), "off-heap-objects", cache.getName(), new Gauge<Long>() {
+        registry.newGauge(cache.getClass(), "off-heap-objects", cache.getName(), new Gauge<Long>() {
             @Override
             public Long value() {
                 return cache.getStatistics().getOffHeapStoreObjectCount();
             }
         });
 
-        Metrics.newGauge(cache.getClass(), "on-disk-objects", cache.getName(), new Gauge<Long>() {
+        registry.newGauge(cache.getClass(), "on-disk-objects", cache.getName(), new Gauge<Long>() {
             @Override
             public Long value() {
                 return cache.getStatistics().getDiskStoreObjectCount();
             }
         });
 
-        Metrics.newGauge(cache.getClass(), "mean-get-time", cache.getName(), new Gauge<Float>() {
+        registry.newGauge(cache.getClass(), "mean-get-time", cache.getName(), new Gauge<Float>() {
             @Override
             public Float value() {
                 return cache.getStatistics().getAverageGetTime();
             }
         });
 
-        Metrics.newGauge(cache.getClass(), "mean-search-time", cache.getName(), new Gauge<Long>() {
+        registry.newGauge(cache.getClass(), "mean-search-time", cache.getName(), new Gauge<Long>() {
             @Override
             public Long value() {
                 return cache.getStatistics().getAverageSearchTime();
             }
         });
 
-        Metrics.newGauge(cache.getClass(), "eviction-count", cache.getName(), new Gauge<Long>() {
+        registry.newGauge(cache.getClass(), "eviction-count", cache.getName(), new Gauge<Long>() {
             @Override
             public Long value() {
                 return cache.getStatistics().getEvictionCount();
             }
         });
 
-        Metrics.newGauge(cache.getClass(), "searches-per-second", cache.getName(), new Gauge<Long>() {
+        registry.newGauge(cache.getClass(), "searches-per-second", cache.getName(), new Gauge<Long>() {
             @Override
             public Long value() {
                 return cache.getStatistics().getSearchesPerSecond();
             }
         });
 
-        Metrics.newGauge(cache.getClass(), "writer-queue-size", cache.getName(), new Gauge<Long>() {
+        registry.newGauge(cache.getClass(), "writer-queue-size", cache.getName(), new Gauge<Long>() {
             @Override
             public Long value() {
                 return cache.getStatistics().getWriterQueueSize();
             }
         });
 
-        Metrics.newGauge(cache.getClass(), "accuracy", cache.getName(), new Gauge<String>() {
+        registry.newGauge(cache.getClass(), "accuracy", cache.getName(), new Gauge<String>() {
             @Override
             public String value() {
                 return cache.getStatistics().getStatisticsAccuracyDescription();
             }
         });
 
-        return new InstrumentedEhcache(cache);
+        return new InstrumentedEhcache(cache, registry);
     }
 
     private final Timer getTimer, putTimer;
 
-    private InstrumentedEhcache(Ehcache cache) {
+    private InstrumentedEhcache(Ehcache cache, MetricsRegistry registry) {
         super(cache);
-        this.getTimer = Metrics.newTimer(cache.getClass(), "get", cache.getName(), TimeUnit.MICROSECONDS, TimeUnit.SECONDS);
-        this.putTimer = Metrics.newTimer(cache.getClass(), "put", cache.getName(), TimeUnit.MICROSECONDS, TimeUnit.SECONDS);
+        this.getTimer = registry.newTimer(cache.getClass(), "get", cache.getName(), TimeUnit.MICROSECONDS, TimeUnit.SECONDS);
+        this.putTimer = registry.newTimer(cache.getClass(), "put", cache.getName(), TimeUnit.MICROSECONDS, TimeUnit.SECONDS);
     }
 
     @Override
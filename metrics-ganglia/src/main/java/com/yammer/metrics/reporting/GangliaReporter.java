@@ -339,6 +339,16 @@ public class GangliaReporter extends AbstractPollingReporter implements MetricPr
                       "gauge");
     }
 
+    @Override
+    public void processLongGauge(MetricName name, LongGauge gauge, String x) throws IOException {
+        sendToGanglia(sanitizeName(name), GANGLIA_INT_TYPE, Long.toString(gauge.longValue()), "gauge");
+    }
+
+    @Override
+    public void processDoubleGauge(MetricName name, DoubleGauge gauge, String x) throws IOException {
+        sendToGanglia(sanitizeName(name), GANGLIA_DOUBLE_TYPE, Double.toString(gauge.doubleValue()), "gauge");
+    }
+
     @Override
     public void processCounter(MetricName name, Counter counter, String x) throws IOException {
         sendToGanglia(sanitizeName(name),
@@ -0,0 +1,121 @@
+package com.yammer.metrics.reporting;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * Writes numbers as ASCII digits straight into a {@link ByteBuffer}, producing the same text as
+ * {@code String.format(Locale.US, "%d", ...)} and {@code String.format(Locale.US, "%.2f", ...)}
+ * without building a {@link String}.
+ */
+final class GraphiteEncoder {
+    /**
+     * The most bytes written by {@link #putLong(ByteBuffer, long)}.
+     */
+    static final int MAX_LONG_LENGTH = 20;
+
+    /**
+     * The most bytes written by {@link #putFixed(ByteBuffer, double, int)}: a sign, the 309
+     * digits of {@link Double#MAX_VALUE}, a point and 9 decimals.
+     */
+    static final int MAX_FIXED_LENGTH = 320;
+
+    // above this, a scaled value has no fraction left to round
+    private static final double MAX_SCALED = 0x1p53;
+
+    private static final long[] POWERS_OF_TEN = {
+            1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L
+    };
+
+    private GraphiteEncoder() { /* unused */ }
+
+    /**
+     * Writes a long in decimal.
+     *
+     * @param buffer the buffer, with at least {@link #MAX_LONG_LENGTH} bytes remaining
+     * @param value  the value
+     */
+    static void putLong(ByteBuffer buffer, long value) {
+        if (value == Long.MIN_VALUE) {
+            putAscii(buffer, Long.toString(value));
+            return;
+        }
+        if (value < 0) {
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        putDigits(buffer, value, digits(value));
+    }
+
+    /**
+     * Writes a double in decimal with the given number of decimals, rounding half up as
+     * {@link java.util.Formatter} does.
+     *
+     * @param buffer   the buffer, with at least {@link #MAX_FIXED_LENGTH} bytes remaining
+     * @param value    the value
+     * @param decimals the number of decimals, from 0 to 9
+     */
+    static void putFixed(ByteBuffer buffer, double value, int decimals) {
+        final long power = POWERS_OF_TEN[decimals];
+        if (Double.isNaN(value) || Math.abs(value) * power >= MAX_SCALED) {
+            putAscii(buffer, String.format(Locale.US, "%." + decimals + "f", value));
+            return;
+        }
+        if (Double.doubleToRawLongBits(value) < 0) {
+            // including -0.0, which the formatter writes as "-0.00"
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        final double scaled = value * power;
+        final double fraction = scaled - Math.floor(scaled);
+        final long rounded;
+        if (Math.abs(fraction - 0.5) <= 4 * Math.ulp(scaled)) {
+            // too close to a tie to round the binary value; the formatter rounds the shortest
+            // decimal representation, so this does too
+            rounded = new BigDecimal(Double.toString(value)).movePointRight(decimals)
+                                                            .setScale(0, RoundingMode.HALF_UP)
+                                                            .longValue();
+        } else {
+            rounded = Math.round(scaled);
+        }
+        final long whole = rounded / power;
+        putDigits(buffer, whole, digits(whole));
+        if (decimals > 0) {
+            buffer.put((byte) '.');
+            putDigits(buffer, rounded - whole * power, decimals);
+        }
+    }
+
+    /**
+     * Writes a string whose characters are all ASCII.
+     *
+     * @param buffer the buffer, with at least {@code s.length()} bytes remaining
+     * @param s      the string
+     */
+    static void putAscii(ByteBuffer buffer, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            buffer.put((byte) s.charAt(i));
+        }
+    }
+
+    // writes a non-negative value as exactly the given number of digits, padded with zeros
+    private static void putDigits(ByteBuffer buffer, long value, int digits) {
+        final int start = buffer.position();
+        for (int i = start + digits - 1; i >= start; i--) {
+            buffer.put(i, (byte) ('0' + value % 10));
+            value /= 10;
+        }
+        buffer.position(start + digits);
+    }
+
+    private static int digits(long value) {
+        int digits = 1;
+        while (value >= 10) {
+            value /= 10;
+            digits++;
+        }
+        return digits;
+    }
+}
@@ -0,0 +1,177 @@
+package com.yammer.metrics.reporting;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes datapoints in the format of carbon's pickle receiver: frames made of a four-byte,
+ * big-endian length followed by a protocol 2 pickle of a list of
+ * {@code (path, (timestamp, value))} tuples. Each frame holds up to a fixed number of datapoints.
+ * <p/>
+ * Only the opcodes needed for such a list are written, and none of them refer to Python classes,
+ * so the frames are accepted by carbon's restricted unpickler.
+ */
+class GraphitePickler {
+    private static final byte PROTO = (byte) 0x80;
+    private static final byte EMPTY_LIST = ']';
+    private static final byte MARK = '(';
+    private static final byte APPENDS = 'e';
+    private static final byte BINUNICODE = 'X';
+    private static final byte BININT = 'J';
+    private static final byte LONG1 = (byte) 0x8a;
+    private static final byte BINFLOAT = 'G';
+    private static final byte TUPLE2 = (byte) 0x86;
+    private static final byte STOP = '.';
+
+    // the header, the protocol, the list and its mark
+    private static final int FRAME_START_LENGTH = 4 + 2 + 1 + 1;
+    // a timestamp and a value, each at most nine bytes, and two tuples
+    private static final int DATAPOINT_LENGTH = 9 + 9 + 2;
+
+    private final int batchSize;
+    private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+    private OutputStream out;
+    private int count;
+
+    /**
+     * Creates a new {@link GraphitePickler}.
+     *
+     * @param batchSize the maximum number of datapoints in each frame
+     */
+    GraphitePickler(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Starts writing frames to the given stream, discarding any datapoints which weren't written
+     * to the previous one.
+     *
+     * @param out the stream to which frames are written
+     */
+    void begin(OutputStream out) {
+        this.out = out;
+        this.count = 0;
+        buffer.clear();
+    }
+
+    /**
+     * Adds a datapoint whose value is a whole number. Its path is {@code prefix + name + "." +
+     * valueName}, but it isn't built as a string.
+     *
+     * @param prefix    the first part of the path, possibly empty
+     * @param name      the metric's name
+     * @param valueName the name of the value
+     * @param timestamp the timestamp, in seconds
+     * @param value     the value
+     * @throws IOException if a full frame can't be written
+     */
+    void add(String prefix, String name, String valueName, long timestamp, long value) throws IOException {
+        putPath(prefix, name, valueName);
+        putLong(timestamp);
+        putLong(value);
+        endDatapoint();
+    }
+
+    /**
+     * Adds a datapoint whose value is a floating-point number.
+     *
+     * @param prefix    the first part of the path, possibly empty
+     * @param name      the metric's name
+     * @param valueName the name of the value
+     * @param timestamp the timestamp, in seconds
+     * @param value     the value
+     * @throws IOException if a full frame can't be written
+     * @see #add(String, String, String, long, long)
+     */
+    void add(String prefix, String name, String valueName, long timestamp, double value) throws IOException {
+        putPath(prefix, name, valueName);
+        putLong(timestamp);
+        buffer.put(BINFLOAT);
+        // the only big-endian value in a pickle
+        buffer.order(ByteOrder.BIG_ENDIAN).putDouble(value).order(ByteOrder.LITTLE_ENDIAN);
+        endDatapoint();
+    }
+
+    /**
+     * Writes any datapoints which don't yet fill a frame.
+     *
+     * @throws IOException if the frame can't be written
+     */
+    void flush() throws IOException {
+        if (count > 0) {
+            writeFrame();
+        }
+    }
+
+    private void putPath(String prefix, String name, String valueName) {
+        // each char is at most three bytes of UTF-8
+        final int length = 3 * (prefix.length() + name.length() + 1 + valueName.length());
+        ensureCapacity(FRAME_START_LENGTH + 5 + length + DATAPOINT_LENGTH);
+        if (count == 0) {
+            buffer.position(4);
+            buffer.put(PROTO).put((byte) 2).put(EMPTY_LIST).put(MARK);
+        }
+        buffer.put(BINUNICODE);
+        final int lengthPosition = buffer.position();
+        buffer.position(lengthPosition + 4);
+        putUtf8(prefix);
+        putUtf8(name);
+        buffer.put((byte) '.');
+        putUtf8(valueName);
+        buffer.putInt(lengthPosition, buffer.position() - lengthPosition - 4);
+    }
+
+    private void putUtf8(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c >= 0x80) {
+                buffer.put(s.substring(i).getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            buffer.put((byte) c);
+        }
+    }
+
+    private void putLong(long value) {
+        if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+            buffer.put(BININT).putInt((int) value);
+        } else {
+            // a little-endian two's complement integer, of which eight bytes are always enough
+            buffer.put(LONG1).put((byte) 8).putLong(value);
+        }
+    }
+
+    private void endDatapoint() throws IOException {
+        buffer.put(TUPLE2).put(TUPLE2);
+        if (++count == batchSize) {
+            writeFrame();
+        }
+    }
+
+    private void writeFrame() throws IOException {
+        ensureCapacity(2);
+        buffer.put(APPENDS).put(STOP);
+        buffer.order(ByteOrder.BIG_ENDIAN).putInt(0, buffer.position() - 4).order(ByteOrder.LITTLE_ENDIAN);
+        count = 0;
+        final int length = buffer.position();
+        buffer.clear();
+        out.write(buffer.array(), 0, length);
+    }
+
+    private void ensureCapacity(int needed) {
+        if (buffer.remaining() < needed) {
+            final ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2,
+                                                                   buffer.position() + needed))
+                                                .order(ByteOrder.LITTLE_ENDIAN);
+            buffer.flip();
+            larger.put(buffer);
+            buffer = larger;
+        }
+    }
+}
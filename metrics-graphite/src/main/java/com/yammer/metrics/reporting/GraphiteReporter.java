@@ -13,9 +13,14 @@ import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.lang.Thread.State;
 import java.net.Socket;
+import java.util.HashMap;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 
 
@@ -30,9 +35,26 @@ public class GraphiteReporter extends AbstractPollingReporter implements MetricP
     protected final Locale locale = Locale.US;
     protected final Clock clock;
     protected final SocketProvider socketProvider;
+    protected final GraphiteSender sender;
     protected final VirtualMachineMetrics vm;
     protected Writer writer;
     public boolean printVMMetrics = true;
+    private volatile GaugeSampler gaugeSampler;
+    private final ConcurrentMap<MetricName, CachedName> names = new ConcurrentHashMap<MetricName, CachedName>();
+    private final MetricsRegistryListener namesListener = new MetricsRegistryListener() {
+        @Override
+        public void onMetricAdded(MetricName name, Metric metric) {
+            // names are cached when they're first reported
+        }
+
+        @Override
+        public void onMetricRemoved(MetricName name) {
+            names.remove(name);
+        }
+    };
+    private GraphiteSender.BatchWriter batch;
+    private volatile GraphitePickler pickler;
+    private GraphitePickler currentPickler;
 
     /**
      * Enables the graphite reporter to send data for the default metrics registry to graphite
@@ -183,9 +205,30 @@ public class GraphiteReporter extends AbstractPollingReporter implements MetricP
      * @param vm              a {@link VirtualMachineMetrics} instance
      * @throws IOException if there is an error connecting to the Graphite server
      */
-    public GraphiteReporter(MetricsRegistry metricsRegistry, String prefix, MetricPredicate predicate, SocketProvider socketProvider, Clock clock, VirtualMachineMetrics vm, String name) throws IOException {    
+    public GraphiteReporter(MetricsRegistry metricsRegistry, String prefix, MetricPredicate predicate, SocketProvider socketProvider, Clock clock, VirtualMachineMetrics vm, String name) throws IOException {
+        this(metricsRegistry, prefix, predicate, socketProvider, null, clock, vm, name);
+    }
+
+    /**
+     * Creates a new {@link GraphiteReporter} which sends each pass as one batch over a persistent
+     * connection, instead of opening a socket for every pass.
+     *
+     * @param metricsRegistry the metrics registry
+     * @param prefix          is prepended to all names reported to graphite
+     * @param predicate       filters metrics to be reported
+     * @param sender          a {@link GraphiteSender} instance, which is closed when the reporter
+     *                        is shut down
+     * @param clock           a {@link Clock} instance
+     */
+    public GraphiteReporter(MetricsRegistry metricsRegistry, String prefix, MetricPredicate predicate, GraphiteSender sender, Clock clock) {
+        this(metricsRegistry, prefix, predicate, null, sender, clock,
+             VirtualMachineMetrics.getInstance(), "graphite-reporter");
+    }
+
+    private GraphiteReporter(MetricsRegistry metricsRegistry, String prefix, MetricPredicate predicate, SocketProvider socketProvider, GraphiteSender sender, Clock clock, VirtualMachineMetrics vm, String name) {
         super(metricsRegistry, name);
         this.socketProvider = socketProvider;
+        this.sender = sender;
         this.vm = vm;
 
         this.clock = clock;
@@ -197,27 +240,60 @@ public class GraphiteReporter extends AbstractPollingReporter implements MetricP
             this.prefix = "";
         }
         this.predicate = predicate;
+        metricsRegistry.addListener(namesListener);
+    }
+
+    /**
+     * Evaluates gauges in parallel through the given {@link GaugeSampler} instead of inline, so a
+     * slow gauge can't stall a reporting pass.
+     *
+     * @param gaugeSampler a {@link GaugeSampler}, or {@code null} to evaluate gauges inline
+     */
+    public void setGaugeSampler(GaugeSampler gaugeSampler) {
+        this.gaugeSampler = gaugeSampler;
+    }
+
+    /**
+     * Sends metrics with carbon's pickle protocol, which carbon-relay ingests far more cheaply
+     * than one line per datapoint. Datapoints are sent in frames of up to {@code batchSize}; the
+     * {@link SocketProvider} should connect to carbon's pickle receiver (port 2004 by default).
+     * Names, prefixes and filtering are the same as for the plaintext protocol, but values which
+     * aren't numbers are skipped.
+     *
+     * @param batchSize the maximum number of datapoints in each frame, or {@code 0} to use the
+     *                  plaintext protocol
+     * @throws IllegalStateException if the reporter sends through a {@link GraphiteSender}, which
+     *                               only speaks the plaintext protocol
+     */
+    public void setPickleBatchSize(int batchSize) {
+        if (sender != null) {
+            throw new IllegalStateException("The pickle protocol needs a SocketProvider");
+        }
+        this.pickler = batchSize == 0 ? null : new GraphitePickler(batchSize);
     }
 
     @Override
     public void run() {
+        if (sender != null) {
+            sendBatch();
+            return;
+        }
         Socket socket = null;
         try {
             socket = this.socketProvider.get();
-            writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
-
-            final long epoch = clock.time() / 1000;
-            if (this.printVMMetrics) {
-                printVmMetrics(epoch);
-            }
-            printRegularMetrics(epoch);
-            writer.flush();
-        } catch (Exception e) {
-            if (LOG.isDebugEnabled()) {
-                LOG.debug("Error writing to Graphite", e);
+            final GraphitePickler pickler = this.pickler;
+            if (pickler != null) {
+                currentPickler = pickler;
+                pickler.begin(socket.getOutputStream());
+                printMetrics();
+                pickler.flush();
             } else {
-                LOG.warn("Error writing to Graphite: {}", e.getMessage());
+                writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+                printMetrics();
+                writer.flush();
             }
+        } catch (Exception e) {
+            logError(e);
             if (writer != null) {
                 try {
                     writer.flush();
@@ -234,14 +310,64 @@ public class GraphiteReporter extends AbstractPollingReporter implements MetricP
                 }
             }
             writer = null;
+            currentPickler = null;
+        }
+    }
+
+    private void sendBatch() {
+        synchronized (sender) {
+            try {
+                batch = sender.beginBatch();
+                writer = batch;
+                printMetrics();
+                sender.flush();
+            } catch (Exception e) {
+                logError(e);
+            } finally {
+                batch = null;
+                writer = null;
+            }
+        }
+    }
+
+    private void printMetrics() {
+        final long epoch = clock.time() / 1000;
+        if (this.printVMMetrics) {
+            printVmMetrics(epoch);
+        }
+        printRegularMetrics(epoch);
+    }
+
+    private static void logError(Exception e) {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Error writing to Graphite", e);
+        } else {
+            LOG.warn("Error writing to Graphite: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        getMetricsRegistry().removeListener(namesListener);
+        if (sender != null) {
+            synchronized (sender) {
+                sender.close();
+            }
         }
     }
 
     protected void printRegularMetrics(final Long epoch) {
-        for (Entry<String,SortedMap<MetricName,Metric>> entry : getMetricsRegistry().groupedMetrics(
-                predicate).entrySet()) {
+        final SortedMap<String, SortedMap<MetricName, Metric>> groupedMetrics =
+                getMetricsRegistry().groupedMetrics(predicate);
+        final Map<MetricName, Gauge<?>> sampledGauges = sampleGauges(groupedMetrics);
+        for (Entry<String,SortedMap<MetricName,Metric>> entry : groupedMetrics.entrySet()) {
             for (Entry<MetricName, Metric> subEntry : entry.getValue().entrySet()) {
-                final Metric metric = subEntry.getValue();
+                Metric metric = subEntry.getValue();
+                if (sampledGauges != null && metric instanceof Gauge) {
+                    // gauges which timed out without a previous value are skipped this pass
+                    metric = sampledGauges.get(subEntry.getKey());
+                }
                 if (metric != null) {
                     try {
                         metric.processWith(this, subEntry.getKey(), epoch);
@@ -253,12 +379,86 @@ public class GraphiteReporter extends AbstractPollingReporter implements MetricP
         }
     }
 
+    private Map<MetricName, Gauge<?>> sampleGauges(SortedMap<String, SortedMap<MetricName, Metric>> groupedMetrics) {
+        final GaugeSampler sampler = gaugeSampler;
+        if (sampler == null) {
+            return null;
+        }
+        final Map<MetricName, Metric> metrics = new HashMap<MetricName, Metric>();
+        for (SortedMap<MetricName, Metric> group : groupedMetrics.values()) {
+            metrics.putAll(group);
+        }
+        return sampler.sample(metrics);
+    }
+
     protected void sendInt(long timestamp, String name, String valueName, long value) {
-        sendToGraphite(timestamp, name, valueName + " " + String.format(locale, "%d", value));
+        final GraphiteSender.BatchWriter batch = this.batch;
+        if (currentPickler != null) {
+            try {
+                currentPickler.add(prefix, sanitizeString(name), valueName, timestamp, value);
+            } catch (IOException e) {
+                LOG.error("Error sending to Graphite:", e);
+            }
+        } else if (batch != null) {
+            writeInt(batch, timestamp, prefix, sanitizeString(name), valueName, value);
+        } else {
+            sendToGraphite(timestamp, name, valueName + " " + String.format(locale, "%d", value));
+        }
     }
 
     protected void sendFloat(long timestamp, String name, String valueName, double value) {
-        sendToGraphite(timestamp, name, valueName + " " + String.format(locale, "%2.2f", value));
+        final GraphiteSender.BatchWriter batch = this.batch;
+        if (currentPickler != null) {
+            try {
+                currentPickler.add(prefix, sanitizeString(name), valueName, timestamp, value);
+            } catch (IOException e) {
+                LOG.error("Error sending to Graphite:", e);
+            }
+        } else if (batch != null) {
+            writeFloat(batch, timestamp, prefix, sanitizeString(name), valueName, value);
+        } else {
+            sendToGraphite(timestamp, name, valueName + " " + String.format(locale, "%2.2f", value));
+        }
+    }
+
+    // the batch writers take a path which has already been sanitized and is written after
+    // pathPrefix; a cached path includes the prefix, so its pathPrefix is empty
+    private static void writeInt(GraphiteSender.BatchWriter batch, long timestamp, String pathPrefix, String path,
+                                 String valueName, long value) {
+        startLine(batch, pathPrefix, path, valueName);
+        batch.writeLong(value);
+        endLine(batch, timestamp);
+    }
+
+    private static void writeFloat(GraphiteSender.BatchWriter batch, long timestamp, String pathPrefix, String path,
+                                   String valueName, double value) {
+        startLine(batch, pathPrefix, path, valueName);
+        batch.writeFixed(value, 2);
+        endLine(batch, timestamp);
+    }
+
+    private static void writeString(GraphiteSender.BatchWriter batch, long timestamp, String path,
+                                    String valueName, String value) {
+        startLine(batch, "", path, valueName);
+        batch.write(value, 0, value.length());
+        endLine(batch, timestamp);
+    }
+
+    // writes "pathPrefix + path.valueName " without building any strings
+    private static void startLine(GraphiteSender.BatchWriter batch, String pathPrefix, String path, String valueName) {
+        if (!pathPrefix.isEmpty()) {
+            batch.write(pathPrefix, 0, pathPrefix.length());
+        }
+        batch.write(path, 0, path.length());
+        batch.write('.');
+        batch.write(valueName, 0, valueName.length());
+        batch.write(' ');
+    }
+
+    private static void endLine(GraphiteSender.BatchWriter batch, long timestamp) {
+        batch.write(' ');
+        batch.writeLong(timestamp);
+        batch.write('\n');
     }
 
     protected void sendObjToGraphite(long timestamp, String name, String valueName, Object value) {
@@ -266,6 +466,10 @@ public class GraphiteReporter extends AbstractPollingReporter implements MetricP
     }
 
     protected void sendToGraphite(long timestamp, String name, String value) {
+        if (currentPickler != null) {
+            pickle(timestamp, name, value);
+            return;
+        }
         try {
             if (!prefix.isEmpty()) {
                 writer.write(prefix);
@@ -276,12 +480,53 @@ public class GraphiteReporter extends AbstractPollingReporter implements MetricP
             writer.write(' ');
             writer.write(Long.toString(timestamp));
             writer.write('\n');
-            writer.flush();
         } catch (IOException e) {
             LOG.error("Error sending to Graphite:", e);
         }
     }
 
+    // sends a "valueName value" pair which has already been formatted for the plaintext protocol
+    private void pickle(long timestamp, String name, String value) {
+        final int space = value.lastIndexOf(' ');
+        try {
+            currentPickler.add(prefix,
+                               sanitizeString(name),
+                               value.substring(0, Math.max(0, space)),
+                               timestamp,
+                               Double.parseDouble(value.substring(space + 1)));
+        } catch (NumberFormatException e) {
+            // carbon only stores numbers
+            LOG.debug("Skipping non-numeric value for {}: {}", name, value);
+        } catch (IOException e) {
+            LOG.error("Error sending to Graphite:", e);
+        }
+    }
+
+    /**
+     * Returns the cached names of the given metric name, which are only computed the first time
+     * the name is reported.
+     *
+     * @param name a metric name
+     * @return the metric's cached names
+     */
+    private CachedName cachedName(MetricName name) {
+        CachedName cached = names.get(name);
+        if (cached == null) {
+            cached = new CachedName(sanitizeName(name));
+            names.put(name, cached);
+        }
+        return cached;
+    }
+
+    /**
+     * Returns the path of the given metric name. Tags are appended as a {@code .key.value} pair
+     * of path segments each, sorted by key, so that metrics which only differ by their tags, like
+     * the members of a {@link MetricFamily}, don't share a path; any dots in a tag's key or value
+     * are replaced with underscores, so that each stays one segment.
+     *
+     * @param name a metric name
+     * @return the metric's path, without the prefix
+     */
     protected String sanitizeName(MetricName name) {
         final StringBuilder sb = new StringBuilder()
                 .append(name.getGroup())
@@ -292,46 +537,118 @@ public class GraphiteReporter extends AbstractPollingReporter implements MetricP
             sb.append(name.getScope())
               .append('.');
         }
-        return sb.append(name.getName()).toString();
+        sb.append(name.getName());
+        if (!name.getTags().isEmpty()) {
+            for (Entry<String, String> tag : new TreeMap<String, String>(name.getTags()).entrySet()) {
+                sb.append('.')
+                  .append(tag.getKey().replace('.', '_'))
+                  .append('.')
+                  .append(tag.getValue().replace('.', '_'));
+            }
+        }
+        return sb.toString();
     }
     
     protected String sanitizeString(String s) {
         return s.replace(' ', '-');
     }
 
+    // with a GraphiteSender, regular metrics are written straight to the batch under their cached
+    // path; otherwise they go through the protected send methods, which subclasses may override
+
     @Override
     public void processGauge(MetricName name, Gauge<?> gauge, Long epoch) throws IOException {
-        sendObjToGraphite(epoch, sanitizeName(name), "value", gauge.value());
+        final GraphiteSender.BatchWriter batch = this.batch;
+        if (batch != null) {
+            writeString(batch, epoch, cachedName(name).path, "value", String.format(locale, "%s", gauge.value()));
+        } else {
+            sendObjToGraphite(epoch, cachedName(name).sanitized, "value", gauge.value());
+        }
+    }
+
+    @Override
+    public void processLongGauge(MetricName name, LongGauge gauge, Long epoch) throws IOException {
+        final GraphiteSender.BatchWriter batch = this.batch;
+        if (batch != null) {
+            writeInt(batch, epoch, "", cachedName(name).path, "value", gauge.longValue());
+        } else {
+            sendInt(epoch, cachedName(name).sanitized, "value", gauge.longValue());
+        }
+    }
+
+    // sent in full, like any other gauge, rather than with two decimals, which would flatten ratios
+    @Override
+    public void processDoubleGauge(MetricName name, DoubleGauge gauge, Long epoch) throws IOException {
+        final GraphiteSender.BatchWriter batch = this.batch;
+        if (batch != null) {
+            writeString(batch, epoch, cachedName(name).path, "value", Double.toString(gauge.doubleValue()));
+        } else {
+            sendToGraphite(epoch, cachedName(name).sanitized, "value " + Double.toString(gauge.doubleValue()));
+        }
     }
 
     @Override
     public void processCounter(MetricName name, Counter counter, Long epoch) throws IOException {
-        sendInt(epoch, sanitizeName(name), "count", counter.count());
+        final GraphiteSender.BatchWriter batch = this.batch;
+        if (batch != null) {
+            writeInt(batch, epoch, "", cachedName(name).path, "count", counter.count());
+        } else {
+            sendInt(epoch, cachedName(name).sanitized, "count", counter.count());
+        }
     }
 
     @Override
     public void processMeter(MetricName name, Metered meter, Long epoch) throws IOException {
-        final String sanitizedName = sanitizeName(name);
-        sendInt(epoch, sanitizedName, "count", meter.count());
-        sendFloat(epoch, sanitizedName, "meanRate", meter.meanRate());
-        sendFloat(epoch, sanitizedName, "1MinuteRate", meter.oneMinuteRate());
-        sendFloat(epoch, sanitizedName, "5MinuteRate", meter.fiveMinuteRate());
-        sendFloat(epoch, sanitizedName, "15MinuteRate", meter.fifteenMinuteRate());
+        final GraphiteSender.BatchWriter batch = this.batch;
+        if (batch != null) {
+            final String path = cachedName(name).path;
+            writeInt(batch, epoch, "", path, "count", meter.count());
+            writeFloat(batch, epoch, "", path, "meanRate", meter.meanRate());
+            writeFloat(batch, epoch, "", path, "1MinuteRate", meter.oneMinuteRate());
+            writeFloat(batch, epoch, "", path, "5MinuteRate", meter.fiveMinuteRate());
+            writeFloat(batch, epoch, "", path, "15MinuteRate", meter.fifteenMinuteRate());
+        } else {
+            final String sanitizedName = cachedName(name).sanitized;
+            sendInt(epoch, sanitizedName, "count", meter.count());
+            sendFloat(epoch, sanitizedName, "meanRate", meter.meanRate());
+            sendFloat(epoch, sanitizedName, "1MinuteRate", meter.oneMinuteRate());
+            sendFloat(epoch, sanitizedName, "5MinuteRate", meter.fiveMinuteRate());
+            sendFloat(epoch, sanitizedName, "15MinuteRate", meter.fifteenMinuteRate());
+        }
     }
 
     @Override
     public void processHistogram(MetricName name, Histogram histogram, Long epoch) throws IOException {
-        final String sanitizedName = sanitizeName(name);
-        sendSummarizable(epoch, sanitizedName, histogram);
-        sendSampling(epoch, sanitizedName, histogram);
+        sendSummarizableAndSampling(name, histogram, histogram, epoch);
     }
 
     @Override
     public void processTimer(MetricName name, Timer timer, Long epoch) throws IOException {
         processMeter(name, timer, epoch);
-        final String sanitizedName = sanitizeName(name);
-        sendSummarizable(epoch, sanitizedName, timer);
-        sendSampling(epoch, sanitizedName, timer);
+        sendSummarizableAndSampling(name, timer, timer, epoch);
+    }
+
+    private void sendSummarizableAndSampling(MetricName name, Summarizable summarizable, Sampling sampling,
+                                             long epoch) throws IOException {
+        final GraphiteSender.BatchWriter batch = this.batch;
+        if (batch == null) {
+            final String sanitizedName = cachedName(name).sanitized;
+            sendSummarizable(epoch, sanitizedName, summarizable);
+            sendSampling(epoch, sanitizedName, sampling);
+            return;
+        }
+        final String path = cachedName(name).path;
+        writeFloat(batch, epoch, "", path, "min", summarizable.min());
+        writeFloat(batch, epoch, "", path, "max", summarizable.max());
+        writeFloat(batch, epoch, "", path, "mean", summarizable.mean());
+        writeFloat(batch, epoch, "", path, "stddev", summarizable.stdDev());
+        final Snapshot snapshot = sampling.getSnapshot();
+        writeFloat(batch, epoch, "", path, "median", snapshot.getMedian());
+        writeFloat(batch, epoch, "", path, "75percentile", snapshot.get75thPercentile());
+        writeFloat(batch, epoch, "", path, "95percentile", snapshot.get95thPercentile());
+        writeFloat(batch, epoch, "", path, "98percentile", snapshot.get98thPercentile());
+        writeFloat(batch, epoch, "", path, "99percentile", snapshot.get99thPercentile());
+        writeFloat(batch, epoch, "", path, "999percentile", snapshot.get999thPercentile());
     }
 
     protected void sendSummarizable(long epoch, String sanitizedName, Summarizable metric) throws IOException {
@@ -374,6 +691,17 @@ public class GraphiteReporter extends AbstractPollingReporter implements MetricP
         }
     }
 
+    // a metric's sanitized name, for the send methods, and its full path, for batches
+    private final class CachedName {
+        private final String sanitized;
+        private final String path;
+
+        private CachedName(String sanitized) {
+            this.sanitized = sanitized;
+            this.path = prefix + sanitizeString(sanitized);
+        }
+    }
+
     public static class DefaultSocketProvider implements SocketProvider {
 
         private final String host;
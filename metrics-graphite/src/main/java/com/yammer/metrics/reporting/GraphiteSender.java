@@ -0,0 +1,340 @@
+package com.yammer.metrics.reporting;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends batches of lines to a <a href="http://graphite.wikidot.com/faq">Graphite</a> server over
+ * one persistent connection.
+ * <p/>
+ * Each batch is encoded into a reusable direct buffer and written without blocking: whatever the
+ * server doesn't accept is kept and sent ahead of the next batch. The unsent data is bounded, and
+ * once it's over the bound the oldest batches are dropped, so a slow or unavailable server costs
+ * old data rather than memory or reporting time. If the connection fails, it's reopened on the
+ * next batch.
+ * <p/>
+ * A sender isn't thread-safe, and is meant to be owned by a single reporter.
+ */
+public class GraphiteSender implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(GraphiteSender.class);
+    private static final int DEFAULT_MAX_PENDING_BYTES = 4 * 1024 * 1024;
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private final InetSocketAddress address;
+    private final int maxPendingBytes;
+    private final int connectTimeout;
+    private final Deque<ByteBuffer> pending = new ArrayDeque<ByteBuffer>();
+    private final BatchWriter writer = new BatchWriter();
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(INITIAL_BUFFER_SIZE);
+    private ByteBuffer[] gather = new ByteBuffer[2];
+    private SocketChannel channel;
+    private long pendingBytes;
+    private long droppedBatches;
+
+    /**
+     * Creates a new {@link GraphiteSender} which keeps up to 4MB of unsent data.
+     *
+     * @param host the host name of graphite server (carbon-cache agent)
+     * @param port the port number on which the graphite server is listening
+     */
+    public GraphiteSender(String host, int port) {
+        this(new InetSocketAddress(host, port), DEFAULT_MAX_PENDING_BYTES, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Creates a new {@link GraphiteSender}.
+     *
+     * @param address         the address of the graphite server
+     * @param maxPendingBytes the maximum number of unsent bytes to keep; the newest batch is kept
+     *                        even if it's larger
+     * @param connectTimeout  the maximum time to wait for a connection
+     * @param unit            the unit of {@code connectTimeout}
+     */
+    public GraphiteSender(InetSocketAddress address, int maxPendingBytes, long connectTimeout, TimeUnit unit) {
+        if (maxPendingBytes < 0) {
+            throw new IllegalArgumentException("maxPendingBytes must not be negative");
+        }
+        this.address = address;
+        this.maxPendingBytes = maxPendingBytes;
+        this.connectTimeout = (int) Math.min(Integer.MAX_VALUE, unit.toMillis(connectTimeout));
+    }
+
+    /**
+     * Starts a new batch.
+     *
+     * @return a writer which appends to the batch until {@link #flush()} is called
+     */
+    public Writer begin() {
+        return beginBatch();
+    }
+
+    BatchWriter beginBatch() {
+        buffer.clear();
+        return writer;
+    }
+
+    /**
+     * Sends the current batch, after any data left over from earlier batches, and returns once
+     * the connection accepts no more. Data which isn't sent is kept for the next flush.
+     *
+     * @throws IOException if the server can't be reached or the connection fails; the unsent data
+     *                     is kept, and the connection is reopened on the next flush
+     */
+    public void flush() throws IOException {
+        buffer.flip();
+        try {
+            if (channel == null) {
+                connect();
+            }
+            write();
+        } catch (IOException e) {
+            keepUnsent();
+            close();
+            throw e;
+        }
+        keepUnsent();
+    }
+
+    /**
+     * Returns the number of batches which have been dropped because the server didn't keep up.
+     *
+     * @return the number of dropped batches
+     */
+    public long getDroppedBatches() {
+        return droppedBatches;
+    }
+
+    /**
+     * Returns the number of bytes waiting to be sent.
+     *
+     * @return the number of unsent bytes
+     */
+    long getPendingBytes() {
+        return pendingBytes;
+    }
+
+    /**
+     * Closes the connection. Unsent data is kept, and sent if the sender is flushed again.
+     */
+    @Override
+    public void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOG.debug("Error closing connection to Graphite", e);
+            }
+            channel = null;
+            // the server may have received part of a line, which the next connection can't finish
+            final ByteBuffer head = pending.peekFirst();
+            if (head != null && isMidLine(head)) {
+                final int before = head.remaining();
+                head.position(lineEnd(head));
+                pendingBytes -= before - head.remaining();
+                if (!head.hasRemaining()) {
+                    pending.removeFirst();
+                }
+            }
+        }
+    }
+
+    private void connect() throws IOException {
+        final SocketChannel opened = SocketChannel.open();
+        try {
+            opened.socket().connect(address, connectTimeout);
+            opened.configureBlocking(false);
+        } catch (IOException e) {
+            opened.close();
+            throw e;
+        }
+        this.channel = opened;
+    }
+
+    private void write() throws IOException {
+        final int count = pending.size() + 1;
+        if (gather.length < count) {
+            gather = new ByteBuffer[Math.max(count, gather.length * 2)];
+        }
+        pending.toArray(gather);
+        gather[count - 1] = buffer;
+        try {
+            int first = 0;
+            while (first < count) {
+                final long written = channel.write(gather, first, count - first);
+                pendingBytes -= Math.min(written, pendingBytes);
+                while (first < count && !gather[first].hasRemaining()) {
+                    first++;
+                }
+                if (written == 0) {
+                    // the socket's send buffer is full
+                    break;
+                }
+            }
+        } finally {
+            while (!pending.isEmpty() && !pending.peekFirst().hasRemaining()) {
+                pending.removeFirst();
+            }
+            for (int i = 0; i < count; i++) {
+                gather[i] = null;
+            }
+        }
+    }
+
+    private void keepUnsent() {
+        if (buffer.hasRemaining()) {
+            // the direct buffer is reused by the next batch, so the rest of this one is copied,
+            // starting with any part of the current line which has already been sent
+            int lineStart = buffer.position();
+            while (lineStart > 0 && buffer.get(lineStart - 1) != '\n') {
+                lineStart--;
+            }
+            final ByteBuffer rest = buffer.duplicate();
+            rest.position(lineStart);
+            final ByteBuffer unsent = ByteBuffer.allocate(rest.remaining());
+            unsent.put(rest).flip();
+            unsent.position(buffer.position() - lineStart);
+            pending.addLast(unsent);
+            pendingBytes += unsent.remaining();
+        }
+        if (pendingBytes > maxPendingBytes && pending.size() > 1) {
+            dropOldest();
+        }
+    }
+
+    private void dropOldest() {
+        final long before = droppedBatches;
+        ByteBuffer partial = null;
+        if (isMidLine(pending.peekFirst())) {
+            // the server has part of the oldest batch's current line, so only that line is kept
+            partial = pending.removeFirst();
+            final int remaining = partial.remaining();
+            partial.limit(lineEnd(partial));
+            pendingBytes -= remaining - partial.remaining();
+            if (partial.limit() < partial.capacity()) {
+                droppedBatches++;
+            }
+        }
+        while (pendingBytes > maxPendingBytes && pending.size() > 1) {
+            pendingBytes -= pending.removeFirst().remaining();
+            droppedBatches++;
+        }
+        if (partial != null) {
+            pending.addFirst(partial);
+        }
+        if (droppedBatches > before) {
+            LOG.warn("Graphite isn't keeping up, dropped {} batch(es) of metrics", droppedBatches - before);
+        }
+    }
+
+    private static boolean isMidLine(ByteBuffer batch) {
+        return batch.position() > 0 && batch.get(batch.position() - 1) != '\n';
+    }
+
+    private static int lineEnd(ByteBuffer batch) {
+        for (int i = batch.position(); i < batch.limit(); i++) {
+            if (batch.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return batch.limit();
+    }
+
+    private void ensureCapacity(int needed) {
+        if (buffer.remaining() < needed) {
+            final ByteBuffer larger = ByteBuffer.allocateDirect(Math.max(buffer.capacity() * 2,
+                                                                         buffer.position() + needed));
+            buffer.flip();
+            larger.put(buffer);
+            buffer = larger;
+        }
+    }
+
+    /**
+     * Appends characters to the current batch, encoding them as UTF-8, which for metric names and
+     * values is almost always plain ASCII. Numbers are written as digits without formatting them
+     * into strings first.
+     */
+    class BatchWriter extends Writer {
+        /**
+         * Appends a long in decimal.
+         *
+         * @param value the value
+         */
+        void writeLong(long value) {
+            ensureCapacity(GraphiteEncoder.MAX_LONG_LENGTH);
+            GraphiteEncoder.putLong(buffer, value);
+        }
+
+        /**
+         * Appends a double in decimal with the given number of decimals.
+         *
+         * @param value    the value
+         * @param decimals the number of decimals, from 0 to 9
+         */
+        void writeFixed(double value, int decimals) {
+            ensureCapacity(GraphiteEncoder.MAX_FIXED_LENGTH);
+            GraphiteEncoder.putFixed(buffer, value, decimals);
+        }
+
+        @Override
+        public void write(int c) {
+            if (c < 0x80) {
+                ensureCapacity(1);
+                buffer.put((byte) c);
+            } else {
+                write(String.valueOf((char) c), 0, 1);
+            }
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            ensureCapacity(len);
+            for (int i = off; i < off + len; i++) {
+                final char c = str.charAt(i);
+                if (c >= 0x80) {
+                    final byte[] encoded = str.substring(i, off + len).getBytes(StandardCharsets.UTF_8);
+                    ensureCapacity(encoded.length);
+                    buffer.put(encoded);
+                    return;
+                }
+                buffer.put((byte) c);
+            }
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            ensureCapacity(len);
+            for (int i = off; i < off + len; i++) {
+                final char c = cbuf[i];
+                if (c >= 0x80) {
+                    final byte[] encoded = new String(cbuf, i, off + len - i).getBytes(StandardCharsets.UTF_8);
+                    ensureCapacity(encoded.length);
+                    buffer.put(encoded);
+                    return;
+                }
+                buffer.put((byte) c);
+            }
+        }
+
+        @Override
+        public void flush() {
+            // the batch is sent by GraphiteSender#flush()
+        }
+
+        @Override
+        public void close() {
+            // the batch is sent by GraphiteSender#flush()
+        }
+    }
+}
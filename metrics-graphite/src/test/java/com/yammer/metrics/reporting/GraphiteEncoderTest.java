@@ -0,0 +1,66 @@
+package com.yammer.metrics.reporting;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class GraphiteEncoderTest {
+    private final ByteBuffer buffer = ByteBuffer.allocate(GraphiteEncoder.MAX_FIXED_LENGTH);
+
+    @Test
+    public void writesLongsLikeTheFormatter() throws Exception {
+        final long[] values = {0, 1, -1, 9, 10, 99, 100, 1234567890123L, Long.MAX_VALUE, Long.MIN_VALUE};
+        for (long value : values) {
+            assertThat(encodeLong(value),
+                       is(String.format(Locale.US, "%d", value)));
+        }
+    }
+
+    @Test
+    public void writesDoublesLikeTheFormatter() throws Exception {
+        final double[] values = {
+                0, -0.0, 0.001, -0.001, 0.5, 0.125, 0.145, 1.005, 2.675, 37.285, 99.995, 999.999,
+                123456.785, 1e15, -1e20, Double.MAX_VALUE, Double.MIN_VALUE, Double.NaN,
+                Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY
+        };
+        for (double value : values) {
+            assertThat(encodeFixed(value),
+                       is(String.format(Locale.US, "%2.2f", value)));
+        }
+    }
+
+    @Test
+    public void writesRandomDoublesLikeTheFormatter() throws Exception {
+        final Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            final double value = (i % 2 == 0) ?
+                    random.nextInt(10000000) / 1000.0 :
+                    (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(16));
+            assertThat(encodeFixed(value),
+                       is(String.format(Locale.US, "%2.2f", value)));
+        }
+    }
+
+    private String encodeLong(long value) {
+        buffer.clear();
+        GraphiteEncoder.putLong(buffer, value);
+        return decode();
+    }
+
+    private String encodeFixed(double value) {
+        buffer.clear();
+        GraphiteEncoder.putFixed(buffer, value, 2);
+        return decode();
+    }
+
+    private String decode() {
+        buffer.flip();
+        return StandardCharsets.US_ASCII.decode(buffer).toString();
+    }
+}
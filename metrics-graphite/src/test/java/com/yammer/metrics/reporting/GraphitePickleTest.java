@@ -0,0 +1,238 @@
+package com.yammer.metrics.reporting;
+
+import com.yammer.metrics.core.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class GraphitePickleTest {
+    private final MetricsRegistry registry = new MetricsRegistry();
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private GraphiteReporter reporter;
+
+    @Before
+    public void setUp() throws Exception {
+        final Socket socket = mock(Socket.class);
+        when(socket.getOutputStream()).thenReturn(out);
+
+        final SocketProvider provider = mock(SocketProvider.class);
+        when(provider.get()).thenReturn(socket);
+
+        final Clock clock = mock(Clock.class);
+        when(clock.time()).thenReturn(5000L);
+
+        this.reporter = new GraphiteReporter(registry, "prefix", MetricPredicate.ALL, provider, clock);
+        reporter.printVMMetrics = false;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        reporter.shutdown();
+        registry.shutdown();
+    }
+
+    @Test
+    public void sendsDatapointsInFramesOfTheBatchSize() throws Exception {
+        registry.newCounter(new MetricName("group", "type", "counter")).inc(3);
+        registry.newCounter(new MetricName("group", "type", "other counter")).inc(3000000000L);
+        registry.newGauge(new MetricName("group", "type", "gauge"), new Gauge<Double>() {
+            @Override
+            public Double value() {
+                return 1.5;
+            }
+        });
+        registry.newGauge(new MetricName("group", "type", "text"), new Gauge<String>() {
+            @Override
+            public String value() {
+                return "not a number";
+            }
+        });
+        reporter.setPickleBatchSize(2);
+
+        reporter.run();
+
+        final List<List<Object[]>> frames = unpickle(out.toByteArray());
+        assertThat(frames.size(),
+                   is(2));
+
+        assertThat(frames.get(0).size(),
+                   is(2));
+
+        assertThat(frames.get(0).get(0),
+                   is(new Object[]{"prefix.group.type.counter.count", 5L, 3L}));
+
+        assertThat(frames.get(0).get(1),
+                   is(new Object[]{"prefix.group.type.gauge.value", 5L, 1.5}));
+
+        assertThat(frames.get(1),
+                   contains(new Object[][]{
+                           {"prefix.group.type.other-counter.count", 5L, 3000000000L}
+                   }));
+    }
+
+    @Test
+    public void sendsNothingWithoutDatapoints() throws Exception {
+        reporter.setPickleBatchSize(100);
+
+        reporter.run();
+
+        assertThat(out.size(),
+                   is(0));
+    }
+
+    @Test
+    public void goesBackToThePlaintextProtocol() throws Exception {
+        registry.newCounter(new MetricName("group", "type", "counter")).inc(3);
+        reporter.setPickleBatchSize(100);
+        reporter.setPickleBatchSize(0);
+
+        reporter.run();
+
+        assertThat(new String(out.toByteArray(), StandardCharsets.US_ASCII),
+                   is("prefix.group.type.counter.count 3 5\n"));
+    }
+
+    @Test
+    public void writesDoubleGaugesInFull() throws Exception {
+        registry.newGauge(new MetricName("group", "type", "double gauge"), new DoubleGauge() {
+            @Override
+            public double doubleValue() {
+                return 0.004;
+            }
+        });
+
+        reporter.run();
+
+        assertThat(new String(out.toByteArray(), StandardCharsets.US_ASCII),
+                   is("prefix.group.type.double-gauge.value 0.004 5\n"));
+    }
+
+    @Test
+    public void sendsRegularMetricsThroughTheSendMethods() throws Exception {
+        final List<String> sent = new ArrayList<String>();
+        final Socket socket = mock(Socket.class);
+        when(socket.getOutputStream()).thenReturn(out);
+        final SocketProvider provider = mock(SocketProvider.class);
+        when(provider.get()).thenReturn(socket);
+        final Clock clock = mock(Clock.class);
+        when(clock.time()).thenReturn(5000L);
+        final GraphiteReporter hooked = new GraphiteReporter(registry, "prefix", MetricPredicate.ALL, provider, clock) {
+            @Override
+            protected void sendInt(long timestamp, String name, String valueName, long value) {
+                sent.add(name + "." + valueName);
+                super.sendInt(timestamp, name, valueName, value);
+            }
+
+            @Override
+            protected void sendToGraphite(long timestamp, String name, String value) {
+                sent.add(name + " " + value);
+                super.sendToGraphite(timestamp, name, value);
+            }
+        };
+        hooked.printVMMetrics = false;
+        registry.newCounter(new MetricName("group", "type", "counter")).inc(3);
+
+        try {
+            hooked.run();
+        } finally {
+            hooked.shutdown();
+        }
+
+        assertThat(sent,
+                   contains("group.type.counter.count", "group.type.counter count 3"));
+
+        assertThat(new String(out.toByteArray(), StandardCharsets.US_ASCII),
+                   is("prefix.group.type.counter.count 3 5\n"));
+    }
+
+    @Test
+    public void encodesTagsInThePath() throws Exception {
+        final Map<String, String> tags = new HashMap<String, String>();
+        tags.put("status", "200");
+        tags.put("endpoint", "GET /v1.0");
+        registry.newCounter(new MetricName("group", "type", "counter", null, tags)).inc(3);
+        registry.newCounter(new MetricName("group", "type", "counter", null,
+                                           Collections.singletonMap("status", "500"))).inc(4);
+
+        reporter.run();
+
+        assertThat(new String(out.toByteArray(), StandardCharsets.US_ASCII),
+                   is("prefix.group.type.counter.endpoint.GET-/v1_0.status.200.count 3 5\n" +
+                      "prefix.group.type.counter.status.500.count 4 5\n"));
+    }
+
+    // reads the frames written by GraphitePickler; any other opcode fails the test
+    private static List<List<Object[]>> unpickle(byte[] bytes) {
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        final List<List<Object[]>> frames = new ArrayList<List<Object[]>>();
+        while (buffer.hasRemaining()) {
+            final int end = buffer.order(ByteOrder.BIG_ENDIAN).getInt() + buffer.position();
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            final List<Object> stack = new ArrayList<Object>();
+            final List<Object[]> frame = new ArrayList<Object[]>();
+            while (buffer.position() < end) {
+                final byte opcode = buffer.get();
+                switch (opcode) {
+                    case (byte) 0x80:
+                        assertThat(buffer.get(), is((byte) 2));
+                        break;
+                    case ']':
+                    case '(':
+                        break;
+                    case 'X':
+                        final byte[] utf8 = new byte[buffer.getInt()];
+                        buffer.get(utf8);
+                        stack.add(new String(utf8, StandardCharsets.UTF_8));
+                        break;
+                    case 'J':
+                        stack.add((long) buffer.getInt());
+                        break;
+                    case (byte) 0x8a:
+                        assertThat(buffer.get(), is((byte) 8));
+                        stack.add(buffer.getLong());
+                        break;
+                    case 'G':
+                        stack.add(buffer.order(ByteOrder.BIG_ENDIAN).getDouble());
+                        buffer.order(ByteOrder.LITTLE_ENDIAN);
+                        break;
+                    case (byte) 0x86:
+                        final Object second = stack.remove(stack.size() - 1);
+                        final Object first = stack.remove(stack.size() - 1);
+                        stack.add(new Object[]{first, second});
+                        break;
+                    case 'e':
+                        for (Object datapoint : stack) {
+                            final Object[] pair = (Object[]) datapoint;
+                            final Object[] point = (Object[]) pair[1];
+                            frame.add(new Object[]{pair[0], point[0], point[1]});
+                        }
+                        stack.clear();
+                        break;
+                    case '.':
+                        break;
+                    default:
+                        throw new AssertionError("Unexpected opcode " + opcode + " in " + Arrays.toString(bytes));
+                }
+            }
+            frames.add(frame);
+        }
+        return frames;
+    }
+}
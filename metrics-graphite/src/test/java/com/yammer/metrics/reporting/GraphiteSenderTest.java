@@ -0,0 +1,149 @@
+package com.yammer.metrics.reporting;
+
+import com.yammer.metrics.core.Clock;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricPredicate;
+import com.yammer.metrics.core.MetricsRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class GraphiteSenderTest {
+    private ServerSocket server;
+    private GraphiteSender sender;
+
+    @Before
+    public void setUp() throws Exception {
+        this.server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        server.setSoTimeout(5000);
+        this.sender = new GraphiteSender(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                                                               server.getLocalPort()),
+                                         1024, 1, TimeUnit.SECONDS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        sender.close();
+        server.close();
+    }
+
+    @Test
+    public void sendsBatchesOverOneConnection() throws Exception {
+        send("a.b 1 100\n");
+        send("a.b 2 200\n");
+
+        final Socket connection = server.accept();
+        final BufferedReader reader = reader(connection);
+
+        assertThat(reader.readLine(),
+                   is("a.b 1 100"));
+
+        assertThat(reader.readLine(),
+                   is("a.b 2 200"));
+
+        assertThat(sender.getPendingBytes(),
+                   is(0L));
+        connection.close();
+    }
+
+    @Test
+    public void reconnectsAfterTheConnectionFails() throws Exception {
+        send("a.b 1 100\n");
+        final Socket first = server.accept();
+        assertThat(reader(first).readLine(),
+                   is("a.b 1 100"));
+        first.close();
+
+        server.setSoTimeout(100);
+        Socket second = null;
+        for (int i = 0; i < 50 && second == null; i++) {
+            try {
+                send("a.b 2 200\n");
+            } catch (IOException ignored) {
+                // the failed connection is noticed by a write
+            }
+            try {
+                second = server.accept();
+            } catch (SocketTimeoutException ignored) {
+                // the sender hasn't reconnected yet
+            }
+        }
+
+        assertThat(second, is(notNullValue()));
+        assertThat(reader(second).readLine(),
+                   is("a.b 2 200"));
+        second.close();
+    }
+
+    @Test
+    public void dropsTheOldestBatchesWhileTheServerIsUnavailable() throws Exception {
+        final int port = server.getLocalPort();
+        server.close();
+        final GraphiteSender unavailable = new GraphiteSender(new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+                                                              20, 1, TimeUnit.SECONDS);
+        for (int i = 0; i < 3; i++) {
+            unavailable.begin().write("a.b " + i + " 100\n");
+            try {
+                unavailable.flush();
+            } catch (IOException ignored) {
+                // nothing is listening
+            }
+        }
+
+        assertThat(unavailable.getPendingBytes(),
+                   is(20L));
+
+        assertThat(unavailable.getDroppedBatches(),
+                   is(1L));
+    }
+
+    @Test
+    public void reportsEachPassAsOneBatch() throws Exception {
+        final Clock clock = mock(Clock.class);
+        when(clock.time()).thenReturn(5000L);
+        final MetricsRegistry registry = new MetricsRegistry();
+        registry.newCounter(new MetricName("group", "type", "counter")).inc(3);
+        final GraphiteReporter reporter = new GraphiteReporter(registry, "prefix", MetricPredicate.ALL, sender, clock);
+        reporter.printVMMetrics = false;
+        try {
+            reporter.run();
+            reporter.run();
+
+            final BufferedReader reader = reader(server.accept());
+            assertThat(reader.readLine(),
+                       is("prefix.group.type.counter.count 3 5"));
+
+            assertThat(reader.readLine(),
+                       is("prefix.group.type.counter.count 3 5"));
+        } finally {
+            reporter.shutdown();
+            registry.shutdown();
+        }
+    }
+
+    private void send(String lines) throws IOException {
+        sender.begin().write(lines);
+        sender.flush();
+    }
+
+    private static BufferedReader reader(Socket socket) throws IOException {
+        socket.setSoTimeout(5000);
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+    }
+}
@@ -4,8 +4,8 @@ import com.yammer.metrics.annotation.AsyncTimed;
 import com.yammer.metrics.annotation.Timed;
 import com.yammer.metrics.core.MetricName;
 import com.yammer.metrics.core.MetricsRegistry;
+import com.yammer.metrics.core.SamplingPolicy;
 import com.yammer.metrics.core.Timer;
-import com.yammer.metrics.core.TimerContext;
 import org.aopalliance.intercept.MethodInterceptor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,13 +35,14 @@ class TimedInterceptor {
             final MetricName metricName = new MetricName(group, type, name);
             final Timer timer = metricsRegistry.newTimer(metricName,
                                                                annotation.durationUnit(),
-                                                               annotation.rateUnit());
+                                                               annotation.rateUnit(),
+                                                               SamplingPolicy.oneIn(annotation.sampleRate()));
             return invocation -> {
-                final TimerContext ctx = timer.time();
+                final long startTime = timer.start();
                 try {
                     return invocation.proceed();
                 } finally {
-                    ctx.stop();
+                    timer.stop(startTime);
                 }
             };
         }
@@ -61,22 +62,15 @@ class TimedInterceptor {
                                                                annotation.durationUnit(),
                                                                annotation.rateUnit());
                 return invocation -> {
-                    final TimerContext ctx = timer.time();
+                    final long startTime = timer.start();
                     final CompletionStage<?> future;
                     try {
                         future = (CompletionStage<?>) invocation.proceed();
                     } catch (Throwable t) {
-                        ctx.stop();
+                        timer.stop(startTime);
                         throw t;
                     }
-
-                    if (future == null) {
-                        ctx.stop();
-                    } else {
-                        future.whenComplete((result, exception) -> ctx.stop());
-                    }
-
-                    return future;
+                    return timer.stopOnCompletion(startTime, future);
                 };
             } else {
                 LOGGER.warn("Method " + method + " is annotated with @AsyncTimed but does not return a CompletionStage (such as CompletableFuture)");
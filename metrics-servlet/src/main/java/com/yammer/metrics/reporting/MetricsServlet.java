@@ -284,25 +284,24 @@ public class MetricsServlet extends HttpServlet implements MetricProcessor<Metri
     }
 
     public void writeRegularMetrics(JsonGenerator json, String classPrefix, boolean showFullSamples) throws IOException {
-        for (Map.Entry<String, SortedMap<MetricName, Metric>> entry : registry.groupedMetrics().entrySet()) {
-            if (classPrefix == null || entry.getKey().startsWith(classPrefix)) {
-                json.writeFieldName(entry.getKey());
-                json.writeStartObject();
-                {
-                    for (Map.Entry<MetricName, Metric> subEntry : entry.getValue().entrySet()) {
-                        json.writeFieldName(subEntry.getKey().getName());
-                        try {
-                            subEntry.getValue()
-                                    .processWith(this,
-                                                 subEntry.getKey(),
-                                                 new Context(json, showFullSamples));
-                        } catch (Exception e) {
-                            LOGGER.warn("Error writing out {}", subEntry.getKey(), e);
-                        }
+        final MetricPredicate predicate = classPrefix == null ? MetricPredicate.ALL : new MetricQuery(classPrefix);
+        for (Map.Entry<String, SortedMap<MetricName, Metric>> entry : registry.groupedMetrics(predicate).entrySet()) {
+            json.writeFieldName(entry.getKey());
+            json.writeStartObject();
+            {
+                for (Map.Entry<MetricName, Metric> subEntry : entry.getValue().entrySet()) {
+                    json.writeFieldName(subEntry.getKey().getName());
+                    try {
+                        subEntry.getValue()
+                                .processWith(this,
+                                             subEntry.getKey(),
+                                             new Context(json, showFullSamples));
+                    } catch (Exception e) {
+                        LOGGER.warn("Error writing out {}", subEntry.getKey(), e);
                     }
                 }
-                json.writeEndObject();
             }
+            json.writeEndObject();
         }
     }
 
@@ -345,6 +344,38 @@ public class MetricsServlet extends HttpServlet implements MetricProcessor<Metri
         json.writeEndObject();
     }
 
+    @Override
+    public void processLongGauge(MetricName name, LongGauge gauge, Context context) throws Exception {
+        final JsonGenerator json = context.json;
+        json.writeStartObject();
+        {
+            json.writeStringField("type", "gauge");
+            try {
+                json.writeNumberField("value", gauge.longValue());
+            } catch (RuntimeException e) {
+                LOGGER.warn("Error evaluating gauge", e);
+                json.writeStringField("value", "error reading gauge: " + e.getMessage());
+            }
+        }
+        json.writeEndObject();
+    }
+
+    @Override
+    public void processDoubleGauge(MetricName name, DoubleGauge gauge, Context context) throws Exception {
+        final JsonGenerator json = context.json;
+        json.writeStartObject();
+        {
+            json.writeStringField("type", "gauge");
+            try {
+                json.writeNumberField("value", gauge.doubleValue());
+            } catch (RuntimeException e) {
+                LOGGER.warn("Error evaluating gauge", e);
+                json.writeStringField("value", "error reading gauge: " + e.getMessage());
+            }
+        }
+        json.writeEndObject();
+    }
+
     @Override
     public void processMeter(MetricName name, Metered meter, Context context) throws Exception {
         final JsonGenerator json = context.json;
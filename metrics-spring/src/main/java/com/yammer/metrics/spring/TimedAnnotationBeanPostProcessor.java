@@ -3,8 +3,10 @@ package com.yammer.metrics.spring;
 import org.aopalliance.intercept.MethodInterceptor;
 import org.springframework.aop.Pointcut;
 import org.springframework.aop.framework.ProxyConfig;
+import org.springframework.aop.support.ComposablePointcut;
 import org.springframework.aop.support.annotation.AnnotationMatchingPointcut;
 
+import com.yammer.metrics.annotation.AsyncTimed;
 import com.yammer.metrics.annotation.Timed;
 import com.yammer.metrics.core.MetricsRegistry;
 
@@ -12,7 +14,8 @@ public class TimedAnnotationBeanPostProcessor extends AbstractProxyingBeanPostPr
 
     private static final long serialVersionUID = -1589475386869891203L;
 
-    private final Pointcut pointcut = new AnnotationMatchingPointcut(null, Timed.class);
+    private final Pointcut pointcut = new ComposablePointcut(new AnnotationMatchingPointcut(null, Timed.class))
+            .union(new AnnotationMatchingPointcut(null, AsyncTimed.class));
     private final MetricsRegistry metrics;
     private final String scope;
 
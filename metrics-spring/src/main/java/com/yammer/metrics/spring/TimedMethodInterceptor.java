@@ -1,5 +1,6 @@
 package com.yammer.metrics.spring;
 
+import com.yammer.metrics.annotation.AsyncTimed;
 import com.yammer.metrics.annotation.Timed;
 import com.yammer.metrics.core.*;
 import org.aopalliance.intercept.MethodInterceptor;
@@ -14,42 +15,58 @@ import org.springframework.util.ReflectionUtils.MethodFilter;
 import java.lang.reflect.Method;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletionStage;
 
 public class TimedMethodInterceptor implements MethodInterceptor, MethodCallback, Ordered {
 
     private static final Log log = LogFactory.getLog(TimedMethodInterceptor.class);
 
     private static final MethodFilter filter = new AnnotationFilter(Timed.class);
+    private static final MethodFilter asyncFilter = new AnnotationFilter(AsyncTimed.class);
 
     private final MetricsRegistry metrics;
     private final Class<?> targetClass;
     private final Map<String, Timer> timers;
+    private final Map<String, Timer> asyncTimers;
     private final String scope;
 
     public TimedMethodInterceptor(final MetricsRegistry metrics, final Class<?> targetClass, final String scope) {
         this.metrics = metrics;
         this.targetClass = targetClass;
         this.timers = new HashMap<String, Timer>();
+        this.asyncTimers = new HashMap<String, Timer>();
         this.scope = scope;
 
         if (log.isDebugEnabled()) {
             log.debug("Creating method interceptor for class " + targetClass.getCanonicalName());
-            log.debug("Scanning for @Timed annotated methods");
+            log.debug("Scanning for @Timed and @AsyncTimed annotated methods");
         }
 
         ReflectionUtils.doWithMethods(targetClass, this, filter);
+        ReflectionUtils.doWithMethods(targetClass, new MethodCallback() {
+            @Override
+            public void doWith(Method method) throws IllegalArgumentException, IllegalAccessException {
+                addAsyncTimer(method);
+            }
+        }, asyncFilter);
     }
 
     @Override
     public Object invoke(MethodInvocation invocation) throws Throwable {
-        final Timer timer = timers.get(invocation.getMethod().getName());
-        final TimerContext timerCtx = timer != null ? timer.time() : null;
+        final String methodName = invocation.getMethod().getName();
+        final Timer asyncTimer = asyncTimers.get(methodName);
+        if (asyncTimer != null) {
+            return invokeAsync(invocation, asyncTimer);
+        }
+        final Timer timer = timers.get(methodName);
+        if (timer == null) {
+            return invocation.proceed();
+        }
+        final long startTime = timer.start();
         try {
             return invocation.proceed();
         } finally {
-            if (timerCtx != null) {
-                timerCtx.stop();
-            }
+            timer.stop(startTime);
         }
     }
 
@@ -62,7 +79,10 @@ public class TimedMethodInterceptor implements MethodInterceptor, MethodCallback
         final String name = MetricName.chooseName(timed.name(), method);
         final MetricName metricName = new MetricName(group, type, name, scope);
 
-        final Timer timer = metrics.newTimer(metricName, timed.durationUnit(), timed.rateUnit());
+        final Timer timer = metrics.newTimer(metricName,
+                                             timed.durationUnit(),
+                                             timed.rateUnit(),
+                                             SamplingPolicy.oneIn(timed.sampleRate()));
         timers.put(method.getName(), timer);
 
         if (log.isDebugEnabled()) {
@@ -70,6 +90,39 @@ public class TimedMethodInterceptor implements MethodInterceptor, MethodCallback
         }
     }
 
+    private Object invokeAsync(MethodInvocation invocation, Timer timer) throws Throwable {
+        final long startTime = timer.start();
+        final CompletionStage<?> stage;
+        try {
+            stage = (CompletionStage<?>) invocation.proceed();
+        } catch (Throwable t) {
+            timer.stop(startTime);
+            throw t;
+        }
+        return timer.stopOnCompletion(startTime, stage);
+    }
+
+    private void addAsyncTimer(Method method) {
+        if (!CompletionStage.class.isAssignableFrom(method.getReturnType())) {
+            log.warn("Method " + method + " is annotated with @AsyncTimed but does not return a CompletionStage (such as CompletableFuture)");
+            return;
+        }
+
+        final AsyncTimed timed = method.getAnnotation(AsyncTimed.class);
+
+        final String group = MetricName.chooseGroup(timed.group(), targetClass);
+        final String type = MetricName.chooseType(timed.type(), targetClass);
+        final String name = MetricName.chooseName(timed.name(), method);
+        final MetricName metricName = new MetricName(group, type, name, scope);
+
+        final Timer timer = metrics.newTimer(metricName, timed.durationUnit(), timed.rateUnit());
+        asyncTimers.put(method.getName(), timer);
+
+        if (log.isDebugEnabled()) {
+            log.debug("Created metric " + metricName + " for async method " + method.getName());
+        }
+    }
+
     @Override
     public int getOrder() {
         return HIGHEST_PRECEDENCE;
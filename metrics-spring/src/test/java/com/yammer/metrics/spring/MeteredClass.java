@@ -1,5 +1,8 @@
 package com.yammer.metrics.spring;
 
+import java.util.concurrent.CompletableFuture;
+
+import com.yammer.metrics.annotation.AsyncTimed;
 import com.yammer.metrics.annotation.ExceptionMetered;
 import com.yammer.metrics.annotation.Gauge;
 import com.yammer.metrics.annotation.Metered;
@@ -24,6 +27,11 @@ public class MeteredClass {
 		if (doThrow) throw new BogusException();
 	}
 
+	@AsyncTimed
+	public CompletableFuture<String> asyncTimedMethod(CompletableFuture<String> future) {
+		return future;
+	}
+
 	@Metered
 	public void meteredMethod() {}
 
@@ -3,6 +3,7 @@ package com.yammer.metrics.spring;
 import static org.junit.Assert.*;
 
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -34,6 +35,7 @@ public class MeteredClassTest {
 	Gauge<Object> gaugedField;
 	Gauge<Object> gaugedMethod;
 	Timer timedMethod;
+	Timer asyncTimedMethod;
 	Meter meteredMethod;
 	Meter exceptionMeteredMethod;
 	Timer triple_Timed;
@@ -48,6 +50,7 @@ public class MeteredClassTest {
 		gaugedField = (Gauge<Object>) metrics.get(new MetricName(MeteredClass.class, "gaugedField"));
 		gaugedMethod = (Gauge<Object>) metrics.get(new MetricName(MeteredClass.class, "gaugedMethod"));
 		timedMethod = (Timer) metrics.get(new MetricName(MeteredClass.class, "timedMethod"));
+		asyncTimedMethod = (Timer) metrics.get(new MetricName(MeteredClass.class, "asyncTimedMethod"));
 		meteredMethod = (Meter) metrics.get(new MetricName(MeteredClass.class, "meteredMethod"));
 		exceptionMeteredMethod = (Meter) metrics.get(new MetricName(MeteredClass.class, "exceptionMeteredMethodExceptions"));
 		triple_Timed = (Timer) metrics.get(new MetricName(MeteredClass.class, "triplyMeteredMethod-timed"));
@@ -81,6 +84,20 @@ public class MeteredClassTest {
 			assertTrue(e instanceof BogusException);
 		}
 		assertEquals(2, timedMethod.count());
+	}
+
+	@Test
+	public void asyncTimedMethod() throws Throwable {
+		assertEquals(0, asyncTimedMethod.count());
+
+		final CompletableFuture<String> future = new CompletableFuture<String>();
+		assertSame(future, meteredClass.asyncTimedMethod(future));
+
+		// the timer isn't stopped until the future completes
+		assertEquals(0, asyncTimedMethod.count());
+
+		future.complete("done");
+		assertEquals(1, asyncTimedMethod.count());
 	}
 
 	@Test
@@ -4,7 +4,6 @@ import com.yammer.metrics.Metrics;
 import com.yammer.metrics.core.Counter;
 import com.yammer.metrics.core.Meter;
 import com.yammer.metrics.core.Timer;
-import com.yammer.metrics.core.TimerContext;
 
 import javax.servlet.*;
 import javax.servlet.http.HttpServletResponse;
@@ -71,11 +70,11 @@ public abstract class WebappMetricsFilter implements Filter {
         final StatusExposingServletResponse wrappedResponse =
                 new StatusExposingServletResponse((HttpServletResponse) response);
         activeRequests.inc();
-        final TimerContext context = requestTimer.time();
+        final long startTime = requestTimer.start();
         try {
             chain.doFilter(request, wrappedResponse);
         } finally {
-            context.stop();
+            requestTimer.stop(startTime);
             activeRequests.dec();
             markMeterForStatusCode(wrappedResponse.getStatus());
         }